@@ -10,6 +10,7 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import de.m_marvin.http.HttpCode;
 import de.m_marvin.http.PathInfo;
@@ -18,22 +19,36 @@ import de.m_marvin.http.server.HttpServer;
 import de.m_marvin.simplelogging.Log;
 import de.m_marvin.simplelogging.impl.SynchronizedLogger;
 
+/**
+ * Simple HTTP server for testing, serves an maven repository and an build cache from the files directory.<br>
+ * Maven artifacts are read and written under /maven, build cache bundles under /cache.<br>
+ * Arguments: [port] [files directory]
+ */
 public class RepoServerTest {
 	
+	public static final String CACHE_PATH = "/cache/";
+	public static final Pattern CACHE_KEY_PATTERN = Pattern.compile("[0-9a-f]{64}\\.zip");
+	
 	private static File files;
 	
 	public static void main(String... args) throws MalformedURLException, URISyntaxException {
 		
-		HttpServer httpServer = new HttpServer(80);
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+		HttpServer httpServer = new HttpServer(port);
 		
 		Log.setDefaultLogger(new SynchronizedLogger(Log.defaultLogger()));
 		
 		httpServer.setGetHandler(RepoServerTest::handleGetRequest);
 		httpServer.setPutHandler(RepoServerTest::handlePutRequest);
 		
-		files = new File(RepoServerTest.class.getProtectionDomain().getCodeSource().getLocation().toURI().toURL().getPath(), "../../files");
+		if (args.length > 1) {
+			files = new File(args[1]);
+		} else {
+			files = new File(RepoServerTest.class.getProtectionDomain().getCodeSource().getLocation().toURI().toURL().getPath(), "../../files");
+		}
 		
 		Log.defaultLogger().info("files location: %s", files);
+		Log.defaultLogger().info("build cache location: http://localhost:%d%s", port, CACHE_PATH);
 		
 		try {
 			
@@ -54,6 +69,8 @@ public class RepoServerTest {
 	}
 	
 	public static  ResponseInfo handleGetRequest(PathInfo path, Map<String, String> attributes) {
+		if (path.getPath().startsWith(CACHE_PATH))
+			return handleCacheGet(path.getPath().substring(CACHE_PATH.length()));
 		try {
 			InputStream fileStream = new FileInputStream(new File(files, path.getPath()));
 			return new ResponseInfo(HttpCode.OK, "OK", fileStream);
@@ -63,6 +80,8 @@ public class RepoServerTest {
 	}
 	
 	public static ResponseInfo handlePutRequest(PathInfo path, Map<String, String> attributes, int contentLength, InputStream contentStream) {
+		if (path.getPath().startsWith(CACHE_PATH))
+			return handleCachePut(path.getPath().substring(CACHE_PATH.length()), contentLength, contentStream);
 		try {
 			Log.defaultLogger().warn(path.getPath());
 			File file = new File(files, path.getPath());
@@ -76,4 +95,40 @@ public class RepoServerTest {
 		}
 	}
 
+	public static ResponseInfo handleCacheGet(String bundle) {
+		if (!CACHE_KEY_PATTERN.matcher(bundle).matches())
+			return new ResponseInfo(HttpCode.NOT_FOUND, "Invalid Cache Key", null);
+		try {
+			InputStream fileStream = new FileInputStream(new File(files, "cache/" + bundle));
+			Log.defaultLogger().info("cache hit: %s", bundle);
+			return new ResponseInfo(HttpCode.OK, "OK", fileStream);
+		} catch (FileNotFoundException e) {
+			Log.defaultLogger().info("cache miss: %s", bundle);
+			return new ResponseInfo(HttpCode.NOT_FOUND, "Cache Miss", null);
+		}
+	}
+	
+	public static ResponseInfo handleCachePut(String bundle, int contentLength, InputStream contentStream) {
+		if (!CACHE_KEY_PATTERN.matcher(bundle).matches())
+			return new ResponseInfo(HttpCode.NOT_FOUND, "Invalid Cache Key", null);
+		try {
+			File file = new File(files, "cache/" + bundle);
+			file.getParentFile().mkdirs();
+			File tempFile = File.createTempFile(bundle, ".tmp", file.getParentFile());
+			OutputStream fileStream = new FileOutputStream(tempFile);
+			fileStream.write(contentStream.readNBytes(contentLength));
+			fileStream.close();
+			// bundles with the same key have the same content, concurrent uploads can replace each other
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				tempFile.delete();
+				return new ResponseInfo(HttpCode.INTERNAL_SERVER_ERROR, "IO Error", null);
+			}
+			Log.defaultLogger().info("cache store: %s (%d bytes)", bundle, contentLength);
+			return new ResponseInfo(HttpCode.OK, "Bundle Stored", null);
+		} catch (IOException e) {
+			return new ResponseInfo(HttpCode.INTERNAL_SERVER_ERROR, "IO Error", null);
+		}
+	}
+	
 }
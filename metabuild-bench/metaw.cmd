@@ -0,0 +1,2 @@
+@echo off
+java -jar %~dp0meta/metabuild-wrapper.jar %*
\ No newline at end of file
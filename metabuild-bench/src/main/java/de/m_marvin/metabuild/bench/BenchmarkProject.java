@@ -0,0 +1,100 @@
+package de.m_marvin.metabuild.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import de.m_marvin.metabuild.core.Metabuild;
+import de.m_marvin.metabuild.core.tasks.BuildTask;
+
+/**
+ * An generated project with its own metabuild instance, for benchmarks which require an loaded build.<br>
+ * Tasks can only be created while the build file is initialized, so the benchmarks pass the source of an build file which creates them.
+ * The instance does not write any logs and does not use the build cache.
+ */
+public class BenchmarkProject implements AutoCloseable {
+
+	private final File directory;
+	private final File buildFile;
+	private final Metabuild meta;
+
+	private BenchmarkProject(File directory, File buildFile, Metabuild meta) {
+		this.directory = directory;
+		this.buildFile = buildFile;
+		this.meta = meta;
+	}
+
+	/**
+	 * Creates an new project and loads its build file.
+	 * @param name The name of the project directory in the benchmark directory, an existing directory is replaced
+	 * @param buildfileSource The java source of the build file
+	 * @return The loaded project
+	 */
+	public static BenchmarkProject create(String name, String buildfileSource) {
+		File directory = new File(FileTrees.benchDir(), "projects/" + name);
+		FileTrees.delete(directory);
+		directory.mkdirs();
+		File buildFile = new File(directory, Metabuild.DEFAULT_BUILD_FILE_NAME.getName());
+		try {
+			Files.writeString(buildFile.toPath(), buildfileSource, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to write benchmark build file: " + buildFile, e);
+		}
+
+		Metabuild meta = new Metabuild();
+		meta.setWorkingDirectory(directory);
+		meta.setCacheDirectory(new File(directory, "cache"));
+		meta.setLogFile(null);
+		meta.setLogStreamOutput(null);
+		meta.setBuildCache(false);
+
+		BenchmarkProject project = new BenchmarkProject(directory, buildFile, meta);
+		project.reload();
+		return project;
+	}
+
+	/**
+	 * Loads the build file again, which creates new instances of all tasks.
+	 */
+	public void reload() {
+		if (!this.meta.initBuild(this.buildFile))
+			throw new IllegalStateException("failed to load benchmark build file: " + this.buildFile);
+	}
+
+	public File directory() {
+		return this.directory;
+	}
+
+	public File buildFile() {
+		return this.buildFile;
+	}
+
+	public Metabuild meta() {
+		return this.meta;
+	}
+
+	/**
+	 * @return The task of the root build file with the name
+	 */
+	public BuildTask task(String name) {
+		return this.meta.taskNamed(":" + name);
+	}
+
+	/**
+	 * Terminates the metabuild instance, the project directory is kept for inspection.
+	 */
+	@Override
+	public void close() {
+		this.meta.terminate();
+	}
+
+	/**
+	 * @return The path as string literal for use in an generated build file
+	 */
+	public static String literal(File path) {
+		return "\"" + path.getAbsolutePath().replace('\\', '/').replace("\"", "\\\"") + "\"";
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.m_marvin.metabuild.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates the file trees the benchmarks run on.<br>
+ * The trees are deterministic and kept in the benchmark directory, so they only have to be generated once for all benchmarks and runs.
+ */
+public class FileTrees {
+
+	/* System property to change the directory the trees and projects are generated in */
+	public static final String BENCH_DIR_PROPERTY = "metabuild.bench.dir";
+	public static final String DEFAULT_BENCH_DIR = "build/bench";
+
+	/* Number of directories on each level of the tree, the files are spread over two levels */
+	public static final int DIRECTORY_FANOUT = 32;
+	/* Size of each generated file in bytes */
+	public static final int FILE_SIZE = 256;
+
+	private FileTrees() {}
+
+	/**
+	 * @return The directory the trees and benchmark projects are generated in
+	 */
+	public static File benchDir() {
+		return new File(System.getProperty(BENCH_DIR_PROPERTY, DEFAULT_BENCH_DIR)).getAbsoluteFile();
+	}
+
+	/**
+	 * Returns an tree with the number of files, it is generated if it does not exist yet.
+	 * @param fileCount The number of files in the tree
+	 * @return The root directory of the tree
+	 */
+	public static File tree(int fileCount) {
+		File root = new File(benchDir(), "trees/" + fileCount);
+		File marker = new File(benchDir(), "trees/" + fileCount + ".complete");
+		if (marker.isFile()) return root;
+
+		delete(root);
+		byte[] content = new byte[FILE_SIZE];
+		try {
+			for (int i = 0; i < fileCount; i++) {
+				File file = new File(root, String.format("d%02d/d%02d/f%06d.txt", i % DIRECTORY_FANOUT, (i / DIRECTORY_FANOUT) % DIRECTORY_FANOUT, i));
+				file.getParentFile().mkdirs();
+				byte[] line = String.format("file %d\n", i).getBytes(StandardCharsets.UTF_8);
+				for (int p = 0; p < content.length; p++) content[p] = line[p % line.length];
+				Files.write(file.toPath(), content);
+			}
+			marker.createNewFile();
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to generate file tree: " + root, e);
+		}
+		return root;
+	}
+
+	/**
+	 * Deletes the file or directory with all its content, if it exists.
+	 */
+	public static void delete(File path) {
+		if (!path.exists()) return;
+		try (Stream<Path> files = Files.walk(path.toPath())) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to delete: " + path, e);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package de.m_marvin.metabuild.bench;
+
+import java.io.File;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.m_marvin.metabuild.core.util.FileUtility;
+
+/**
+ * Benchmarks the file tree utilities, which run in the prepare phase of most tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileUtilityBenchmark {
+
+	@Param({"10000", "100000", "500000"})
+	public int fileCount;
+
+	private BenchmarkProject project;
+	private File tree;
+	private List<File> files;
+	private File filepathFile;
+	private File filepathOutput;
+
+	@Setup
+	public void setup() {
+		this.tree = FileTrees.tree(this.fileCount);
+		this.files = FileUtility.deepList(this.tree);
+		// loading file paths resolves them against the working directory of the current build
+		this.project = BenchmarkProject.create("fileutility", "public class Buildfile extends de.m_marvin.metabuild.core.script.BuildScript {}");
+		this.filepathFile = new File(this.project.directory(), "files.classpath");
+		this.filepathOutput = new File(this.project.directory(), "output.classpath");
+		FileUtility.writeFilePath(this.filepathFile, this.files);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.project.close();
+	}
+
+	@Benchmark
+	public List<File> deepList() {
+		return FileUtility.deepList(this.tree);
+	}
+
+	@Benchmark
+	public void timestamp(Blackhole blackhole) {
+		for (File file : this.files)
+			blackhole.consume(FileUtility.timestamp(file));
+	}
+
+	@Benchmark
+	public Optional<FileTime> timestampDir() {
+		return FileUtility.timestampDir(this.tree);
+	}
+
+	@Benchmark
+	public Collection<File> loadFilePath() {
+		return FileUtility.loadFilePath(this.filepathFile);
+	}
+
+	@Benchmark
+	public boolean writeFilePath() {
+		return FileUtility.writeFilePath(this.filepathOutput, this.files);
+	}
+
+}
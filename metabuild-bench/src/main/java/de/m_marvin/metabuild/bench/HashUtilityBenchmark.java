@@ -0,0 +1,59 @@
+package de.m_marvin.metabuild.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.metabuild.core.util.HashUtility;
+
+/**
+ * Benchmarks the hashing of file contents and paths, used for the fingerprints of the task inputs and outputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashUtilityBenchmark {
+
+	@Param({"10000", "100000", "500000"})
+	public int fileCount;
+
+	private List<File> files;
+	private List<String> paths;
+
+	@Setup
+	public void setup() {
+		this.files = FileUtility.deepList(FileTrees.tree(this.fileCount));
+		this.paths = this.files.stream().map(File::getPath).toList();
+	}
+
+	@Benchmark
+	public void hashFiles(Blackhole blackhole) throws IOException {
+		for (File file : this.files)
+			blackhole.consume(HashUtility.hash(file));
+	}
+
+	@Benchmark
+	public void hashPaths(Blackhole blackhole) {
+		for (String path : this.paths)
+			blackhole.consume(HashUtility.hash(path));
+	}
+
+}
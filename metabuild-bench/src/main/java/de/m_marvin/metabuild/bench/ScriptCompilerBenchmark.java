@@ -0,0 +1,91 @@
+package de.m_marvin.metabuild.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.m_marvin.metabuild.core.Metabuild;
+import de.m_marvin.metabuild.core.script.BuildScript;
+
+/**
+ * Benchmarks loading an build file, with the compiled class taken from the cache or compiled again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScriptCompilerBenchmark {
+
+	/* Number of tasks the generated build file declares */
+	public static final int TASK_COUNT = 50;
+
+	@Param({"cached", "compile"})
+	public String mode;
+
+	private BenchmarkProject project;
+	private String source;
+	private int revision;
+
+	@Setup
+	public void setup() {
+		StringBuilder source = new StringBuilder();
+		source.append("import java.io.File;\n");
+		source.append("import de.m_marvin.metabuild.core.script.BuildScript;\n");
+		source.append("import de.m_marvin.metabuild.core.tasks.BuildTask;\n");
+		source.append("import de.m_marvin.metabuild.core.tasks.FileTask;\n");
+		source.append("public class Buildfile extends BuildScript {\n");
+		source.append("	@Override\n");
+		source.append("	public void init() {\n");
+		for (int i = 0; i < TASK_COUNT; i++) {
+			source.append(String.format("		FileTask copy%d = new FileTask(\"copy%d\", FileTask.Action.COPY, new File(\"src/%d\"), new File(\"build/%d\"));\n", i, i, i, i));
+			source.append(String.format("		copy%d.group = \"copy\";\n", i));
+			if (i > 0) source.append(String.format("		copy%d.dependsOn(copy%d);\n", i, i - 1));
+		}
+		source.append("	}\n");
+		source.append("}\n");
+		this.source = source.toString();
+		this.project = BenchmarkProject.create("scriptcompiler", this.source);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.project.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void invalidate() {
+		// the class cache is keyed by the content of the build file, an changed comment is enough to miss it
+		if (this.mode.equals("compile")) {
+			try {
+				Files.writeString(this.project.buildFile().toPath(), this.source + "// revision " + ++this.revision + "\n", StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new UncheckedIOException("failed to write benchmark build file: " + this.project.buildFile(), e);
+			}
+		}
+	}
+
+	@Benchmark
+	public BuildScript loadBuildFile() {
+		Metabuild meta = this.project.meta();
+		return meta.getBuildCompiler().loadBuildFile(this.project.buildFile(), Metabuild.class.getClassLoader());
+	}
+
+}
@@ -0,0 +1,81 @@
+package de.m_marvin.metabuild.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the task graph for an synthetic DAG of tasks.<br>
+ * Metabuild.buildTaskTree() is private, so it is measured through runTasks() with the run phase skipped.
+ * All tasks are forced to be part of the graph, the build file is loaded again before each invocation so every task is prepared again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TaskGraphBenchmark {
+
+	/* Seed for the dependencies of the generated tasks, so every run uses the same graph */
+	public static final long GRAPH_SEED = 1234;
+
+	@Param({"1000", "10000", "50000"})
+	public int taskCount;
+
+	/* Max. number of dependencies of each task, chosen randomly from the tasks before it */
+	@Param({"2", "8"})
+	public int fanIn;
+
+	private BenchmarkProject project;
+
+	@Setup
+	public void setup() {
+		this.project = BenchmarkProject.create("taskgraph", String.join("\n",
+				"import java.util.Random;",
+				"import de.m_marvin.metabuild.core.script.BuildScript;",
+				"import de.m_marvin.metabuild.core.tasks.BuildTask;",
+				"public class Buildfile extends BuildScript {",
+				"	@Override",
+				"	public void init() {",
+				"		Random random = new Random(" + GRAPH_SEED + "L);",
+				"		BuildTask all = new BuildTask(\"all\");",
+				"		for (int i = 0; i < " + this.taskCount + "; i++) {",
+				"			BuildTask task = new BuildTask(\"t\" + i);",
+				"			for (int d = 0; d < " + this.fanIn + " && i > 0; d++) task.dependsOn(\"t\" + random.nextInt(i));",
+				"			all.dependsOn(task);",
+				"		}",
+				"	}",
+				"}"));
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.project.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void reload() {
+		this.project.reload();
+		this.project.meta().setSkipTaskRun(true);
+		this.project.meta().setForceRunTasks(true);
+	}
+
+	@Benchmark
+	public boolean buildTaskTree() {
+		return this.project.meta().runTasks("all");
+	}
+
+}
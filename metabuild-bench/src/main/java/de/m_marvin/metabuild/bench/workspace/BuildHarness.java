@@ -0,0 +1,310 @@
+package de.m_marvin.metabuild.bench.workspace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import de.m_marvin.cliutil.arguments.Arguments;
+import de.m_marvin.cliutil.arguments.CommandArgumentParser;
+import de.m_marvin.cliutil.exception.CommandArgumentException;
+import de.m_marvin.metabuild.bench.FileTrees;
+
+/**
+ * Runs complete builds on an generated workspace and measures them.<br>
+ * Each run executes the scenarios clean, no-op, one-file-changed and abi-change in this order, with the meta command started as separate process.<br>
+ * The wall time, the cpu time and the peak resident memory of the process tree are measured, the cpu time and memory are sampled while the build runs.
+ * Processes outside of the tree (like an already running daemon) are not included.
+ */
+public class BuildHarness {
+
+	public static final String[] SCENARIOS = { "clean", "noop", "one-file-changed", "abi-change" };
+
+	/* Interval in which the process tree is sampled */
+	public static final long SAMPLE_INTERVAL = 20;
+	/* Max. time to wait for the repository server to accept connections */
+	public static final long SERVER_TIMEOUT = 10000;
+
+	public static record Measurement(String scenario, int exitCode, long wallMillis, long cpuMillis, long peakRssKb) {}
+
+	private final File workspace;
+	private final List<String> metaCommand;
+	private final File cacheDir;
+	private final File buildLog;
+	private final Properties properties = new Properties();
+	private int changeCount = 0;
+
+	public BuildHarness(File workspace, List<String> metaCommand) {
+		this.workspace = workspace.getAbsoluteFile();
+		this.metaCommand = metaCommand;
+		this.cacheDir = new File(this.workspace, "build/cache");
+		this.buildLog = new File(this.workspace, "build/harness.log");
+		try (FileInputStream stream = new FileInputStream(new File(this.workspace, WorkspaceGenerator.WORKSPACE_PROPERTIES))) {
+			this.properties.load(stream);
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to load workspace properties, generate the workspace first", e);
+		}
+	}
+
+	public static void main(String... args) {
+
+		CommandArgumentParser parser = new CommandArgumentParser();
+		parser.addOption("help", false, "show command help");
+		parser.addOption("workspace", new File(FileTrees.benchDir(), "workspace"), "directory of the generated workspace");
+		parser.addOption("meta", "meta", "command to run metabuild, additional arguments are separated by spaces");
+		parser.addOption("repo-server", "", "jar of the RepoServerTest to serve the maven repository, if not set the server has to be running already");
+		parser.addOption("runs", "3", "number of times each scenario is run");
+		parser.addOption("output", new File("build/harness-result.json"), "file to write the results to, as JSON");
+
+		try {
+
+			Arguments arguments = parser.parse(args);
+			if (arguments.flag("help")) {
+				System.out.println("BuildHarness < options >");
+				System.out.println(parser.printHelp());
+				System.exit(1);
+			}
+
+			File workspace = arguments.get("workspace");
+			String meta = arguments.get("meta");
+			BuildHarness harness = new BuildHarness(workspace, Arrays.asList(meta.trim().split("\\s+")));
+
+			String serverJar = arguments.get("repo-server");
+			Process server = serverJar.isEmpty() ? null : harness.startRepositoryServer(new File(serverJar));
+			try {
+				List<Measurement> measurements = harness.run(Integer.parseInt(arguments.get("runs")));
+				System.out.println(report(measurements));
+				File output = arguments.get("output");
+				if (output.getParentFile() != null) output.getParentFile().mkdirs();
+				Files.writeString(output.toPath(), json(measurements), StandardCharsets.UTF_8);
+				System.out.println("results written to: " + output);
+			} finally {
+				if (server != null) server.destroy();
+			}
+
+		} catch (CommandArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+
+	}
+
+	/**
+	 * Starts the RepoServerTest from its jar, serving the repository directory of the workspace.
+	 */
+	public Process startRepositoryServer(File serverJar) throws IOException {
+		int port = Integer.parseInt(this.properties.getProperty("repository.port"));
+		File files = new File(this.workspace, this.properties.getProperty("repository.dir"));
+		return startRepositoryServer(serverJar, port, files, new File(this.workspace, "build/repo-server.log"));
+	}
+
+	/**
+	 * Starts the RepoServerTest from its jar and waits until it accepts connections.
+	 * @param serverJar The jar of the RepoServerTest
+	 * @param port The port to serve on
+	 * @param files The directory to serve the files from
+	 * @param log The file to write the output of the server to
+	 * @return The server process
+	 */
+	public static Process startRepositoryServer(File serverJar, int port, File files, File log) throws IOException {
+
+		String java = ProcessHandle.current().info().command().orElse("java");
+		ProcessBuilder builder = new ProcessBuilder(java, "-jar", serverJar.getAbsolutePath(), Integer.toString(port), files.getAbsolutePath());
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(log);
+		log.getParentFile().mkdirs();
+		Process server = builder.start();
+
+		long timeout = System.currentTimeMillis() + SERVER_TIMEOUT;
+		while (System.currentTimeMillis() < timeout) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("localhost", port), 500);
+				return server;
+			} catch (IOException e) {
+				if (!server.isAlive()) break;
+				try { Thread.sleep(100); } catch (InterruptedException e1) {}
+			}
+		}
+		server.destroy();
+		throw new IOException("repository server did not start on port " + port);
+
+	}
+
+	/**
+	 * Runs all scenarios the given number of times.
+	 * @return The measurements of all builds, in the order they were run
+	 */
+	public List<Measurement> run(int runs) throws IOException {
+		List<Measurement> measurements = new ArrayList<>();
+		for (int r = 0; r < runs; r++) {
+			for (String scenario : SCENARIOS) {
+				Measurement measurement = scenario(scenario);
+				System.out.println(String.format("run %d %-18s exit %d, %d ms wall, %d ms cpu, %d kB peak rss", r + 1, scenario, measurement.exitCode(), measurement.wallMillis(), measurement.cpuMillis(), measurement.peakRssKb()));
+				measurements.add(measurement);
+			}
+		}
+		return measurements;
+	}
+
+	protected Measurement scenario(String scenario) throws IOException {
+		switch (scenario) {
+		case "clean":
+			// remove all outputs and the cache, so dependencies and build files have to be loaded again
+			build(scenario, "clean");
+			FileTrees.delete(this.cacheDir);
+			return build(scenario, "build", "--no-build-cache");
+		case "noop":
+			return build(scenario, "build");
+		case "one-file-changed":
+			edit("change.body", WorkspaceGenerator.BODY_MARKER, String.format("+ %d %s", ++this.changeCount, WorkspaceGenerator.BODY_MARKER));
+			return build(scenario, "build");
+		case "abi-change":
+			edit("change.abi", WorkspaceGenerator.ABI_MARKER, String.format("public static int added%d() {\n		return %d;\n	}\n\n	%s", ++this.changeCount, this.changeCount, WorkspaceGenerator.ABI_MARKER));
+			return build(scenario, "build");
+		default:
+			throw new IllegalArgumentException("unknown scenario: " + scenario);
+		}
+	}
+
+	protected void edit(String property, String marker, String replacement) throws IOException {
+		String path = this.properties.getProperty(property);
+		if (path == null) return;
+		File file = new File(this.workspace, path);
+		String content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+		Files.writeString(file.toPath(), content.replace(marker, replacement), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Runs the meta command with the task in the workspace and measures it.
+	 */
+	protected Measurement build(String scenario, String task, String... options) throws IOException {
+
+		List<String> command = new ArrayList<>(this.metaCommand);
+		command.add(task);
+		command.add("--cache-dir");
+		command.add(this.cacheDir.getAbsolutePath());
+		command.addAll(Arrays.asList(options));
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(this.workspace);
+		builder.redirectErrorStream(true);
+		this.buildLog.getParentFile().mkdirs();
+		builder.redirectOutput(ProcessBuilder.Redirect.appendTo(this.buildLog));
+
+		long start = System.nanoTime();
+		Process process = builder.start();
+
+		// cpu time of each process of the tree, the last sample before the process exits is used
+		Map<Long, Duration> cpu = new HashMap<>();
+		long peakRss = -1;
+		try {
+			while (!process.waitFor(SAMPLE_INTERVAL, TimeUnit.MILLISECONDS)) {
+				long rss = 0;
+				boolean rssAvailable = false;
+				for (ProcessHandle handle : Stream.concat(Stream.of(process.toHandle()), process.descendants()).toList()) {
+					handle.info().totalCpuDuration().ifPresent(d -> cpu.merge(handle.pid(), d, (a, b) -> a.compareTo(b) > 0 ? a : b));
+					long processRss = residentSetKb(handle.pid());
+					if (processRss >= 0) {
+						rss += processRss;
+						rssAvailable = true;
+					}
+				}
+				if (rssAvailable) peakRss = Math.max(peakRss, rss);
+			}
+		} catch (InterruptedException e) {
+			process.destroy();
+			throw new IOException("interrupted while waiting for build", e);
+		}
+		long wall = (System.nanoTime() - start) / 1000000;
+		long cpuTotal = cpu.values().stream().mapToLong(Duration::toMillis).sum();
+
+		return new Measurement(scenario, process.exitValue(), wall, cpuTotal, peakRss);
+
+	}
+
+	/**
+	 * Reads the resident memory of the process from the proc file system.
+	 * @return The resident memory in kB or -1 if not available on this system
+	 */
+	protected static long residentSetKb(long pid) {
+		File status = new File("/proc/" + pid + "/status");
+		if (!status.isFile()) return -1;
+		try {
+			for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.startsWith("VmRSS:")) continue;
+				return Long.parseLong(line.substring(6).replace("kB", "").trim());
+			}
+		} catch (IOException | NumberFormatException e) {
+			// the process exited while reading
+		}
+		return -1;
+	}
+
+	/**
+	 * Formats the median of each scenario as table.
+	 */
+	public static String report(List<Measurement> measurements) {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-18s %6s %12s %12s %16s\n", "scenario", "runs", "wall [ms]", "cpu [ms]", "peak rss [kB]"));
+		for (Map.Entry<String, List<Measurement>> entry : byScenario(measurements).entrySet()) {
+			List<Measurement> runs = entry.getValue();
+			report.append(String.format("%-18s %6d %12d %12d %16d\n", entry.getKey(), runs.size(),
+					median(runs.stream().mapToLong(Measurement::wallMillis).toArray()),
+					median(runs.stream().mapToLong(Measurement::cpuMillis).toArray()),
+					median(runs.stream().mapToLong(Measurement::peakRssKb).toArray())));
+		}
+		return report.toString();
+	}
+
+	public static String json(List<Measurement> measurements) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"scenarios\": [\n");
+		int s = 0;
+		Map<String, List<Measurement>> scenarios = byScenario(measurements);
+		for (Map.Entry<String, List<Measurement>> entry : scenarios.entrySet()) {
+			List<Measurement> runs = entry.getValue();
+			json.append(String.format("    {\"scenario\": \"%s\", \"wallMillis\": %d, \"cpuMillis\": %d, \"peakRssKb\": %d, \"runs\": [\n", entry.getKey(),
+					median(runs.stream().mapToLong(Measurement::wallMillis).toArray()),
+					median(runs.stream().mapToLong(Measurement::cpuMillis).toArray()),
+					median(runs.stream().mapToLong(Measurement::peakRssKb).toArray())));
+			for (int i = 0; i < runs.size(); i++) {
+				Measurement m = runs.get(i);
+				json.append(String.format("      {\"exitCode\": %d, \"wallMillis\": %d, \"cpuMillis\": %d, \"peakRssKb\": %d}%s\n", m.exitCode(), m.wallMillis(), m.cpuMillis(), m.peakRssKb(), i < runs.size() - 1 ? "," : ""));
+			}
+			json.append(String.format("    ]}%s\n", ++s < scenarios.size() ? "," : ""));
+		}
+		json.append("  ]\n}\n");
+		return json.toString();
+	}
+
+	protected static Map<String, List<Measurement>> byScenario(List<Measurement> measurements) {
+		Map<String, List<Measurement>> scenarios = new LinkedHashMap<>();
+		for (Measurement measurement : measurements)
+			scenarios.computeIfAbsent(measurement.scenario(), s -> new ArrayList<>()).add(measurement);
+		return scenarios;
+	}
+
+	protected static long median(long[] values) {
+		if (values.length == 0) return -1;
+		Arrays.sort(values);
+		return values[values.length / 2];
+	}
+
+}
@@ -0,0 +1,128 @@
+package de.m_marvin.metabuild.bench.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import de.m_marvin.cliutil.arguments.Arguments;
+import de.m_marvin.cliutil.arguments.CommandArgumentParser;
+import de.m_marvin.cliutil.exception.CommandArgumentException;
+import de.m_marvin.metabuild.bench.FileTrees;
+import de.m_marvin.metabuild.core.cache.BuildCache;
+import de.m_marvin.metabuild.core.cache.RemoteBuildCache;
+import de.m_marvin.metabuild.core.tasks.TaskSnapshot;
+import de.m_marvin.simplelogging.api.Logger;
+import de.m_marvin.simplelogging.impl.SystemLogger;
+
+/**
+ * Checks an remote build cache server end to end, with an real output key as the build computes it.<br>
+ * The outputs of an task are stored through one local cache, which uploads them, and restored through an second empty local cache, which has to download them.
+ * An key which was never stored has to be reported as miss.
+ */
+public class RemoteCacheCheck {
+
+	/* Max. size of the local caches used for the check */
+	public static final long LOCAL_CACHE_SIZE = 16 * 1024 * 1024;
+
+	public static void main(String... args) {
+
+		CommandArgumentParser parser = new CommandArgumentParser();
+		parser.addOption("help", false, "show command help");
+		parser.addOption("url", "", "URL of the remote build cache, by default the cache of the repository server on the port");
+		parser.addOption("repo-server", "", "jar of the RepoServerTest to start on the port, if not set the server has to be running already");
+		parser.addOption("port", "8080", "port of the repository server");
+
+		try {
+
+			Arguments arguments = parser.parse(args);
+			if (arguments.flag("help")) {
+				System.out.println("RemoteCacheCheck < options >");
+				System.out.println(parser.printHelp());
+				System.exit(1);
+			}
+
+			int port = Integer.parseInt(arguments.get("port"));
+			String url = arguments.get("url");
+			if (url.isEmpty()) url = String.format("http://localhost:%d/cache/", port);
+
+			File directory = new File(FileTrees.benchDir(), "remotecache");
+			FileTrees.delete(directory);
+
+			String serverJar = arguments.get("repo-server");
+			Process server = serverJar.isEmpty() ? null : BuildHarness.startRepositoryServer(new File(serverJar), port, new File(directory, "server"), new File(directory, "repo-server.log"));
+			try {
+				String failure = check(url, directory);
+				if (failure != null) {
+					System.err.println("remote cache check failed: " + failure);
+					System.exit(3);
+				}
+				System.out.println("remote cache check passed: " + url);
+			} finally {
+				if (server != null) server.destroy();
+			}
+
+		} catch (CommandArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+
+	}
+
+	/**
+	 * Runs the check against the remote cache.
+	 * @param url The URL of the remote build cache
+	 * @param directory The directory to create the task files and the local caches in
+	 * @return The reason the check failed, or null if it passed
+	 */
+	public static String check(String url, File directory) throws IOException {
+
+		// the content is different on each run, so the key was never stored before
+		File project = new File(directory, "project");
+		File input = new File(project, "input.txt");
+		File output = new File(project, "output/result.txt");
+		String content = "remote cache check " + System.nanoTime() + "\n";
+		output.getParentFile().mkdirs();
+		Files.writeString(input.toPath(), content, StandardCharsets.UTF_8);
+		Files.writeString(output.toPath(), content.toUpperCase(), StandardCharsets.UTF_8);
+
+		TaskSnapshot snapshot = TaskSnapshot.take(Map.of("check", url), List.of(input), Collections.emptyMap(), null);
+		List<File> outputs = List.of(output.getParentFile());
+		String key = snapshot.outputKey(RemoteCacheCheck.class.getName(), project, outputs);
+		System.out.println("output key: " + key);
+
+		Logger logger = new SystemLogger();
+		BuildCache upload = new BuildCache(new File(directory, "cache-upload"), LOCAL_CACHE_SIZE, new RemoteBuildCache(url), true, logger);
+		BuildCache download = new BuildCache(new File(directory, "cache-download"), LOCAL_CACHE_SIZE, new RemoteBuildCache(url), false, logger);
+		try {
+
+			if (download.load(key, project, outputs))
+				return "key which was never stored was restored: " + key;
+
+			upload.store(key, project, outputs);
+			if (!upload.awaitUploads())
+				return "upload did not complete in time: " + key;
+
+			// misses are remembered until the next build
+			download.resetStatistics();
+			Files.delete(output.toPath());
+			if (!download.load(key, project, outputs))
+				return "stored key could not be restored, see the server log for rejected keys: " + key;
+			if (!output.isFile() || !Files.readString(output.toPath(), StandardCharsets.UTF_8).equals(content.toUpperCase()))
+				return "restored outputs do not match the stored outputs: " + key;
+			return null;
+
+		} finally {
+			upload.close();
+			download.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,477 @@
+package de.m_marvin.metabuild.bench.workspace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import de.m_marvin.cliutil.arguments.Arguments;
+import de.m_marvin.cliutil.arguments.CommandArgumentParser;
+import de.m_marvin.cliutil.exception.CommandArgumentException;
+import de.m_marvin.metabuild.bench.FileTrees;
+
+/**
+ * Generates an synthetic multi-project workspace to measure complete builds on.<br>
+ * The workspace consists of Java modules build with the JavaBuildScript, C++ projects build with the CppMultiTargetBuildScript and
+ * an maven repository with an graph of library artifacts, which is served by the RepoServerTest.<br>
+ * The C++ projects use an stub compiler script, so the builds do not depend on an installed toolchain.<br>
+ * The generated workspace.properties describes the files the BuildHarness modifies for its scenarios.
+ */
+public class WorkspaceGenerator {
+
+	public static final String WORKSPACE_PROPERTIES = "workspace.properties";
+	public static final String REPOSITORY_DIRECTORY = "repo";
+	public static final String LIBRARY_GROUP = "bench.deps";
+	public static final String LIBRARY_VERSION = "1.0";
+
+	/* Markers in the generated sources, replaced by the harness to change an method body or the public API of an class */
+	public static final String BODY_MARKER = "/* body */";
+	public static final String ABI_MARKER = "// abi";
+
+	/* Max. number of other modules and libraries each module or library depends on */
+	public static final int MAX_MODULE_DEPENDENCIES = 2;
+	public static final int MAX_LIBRARY_DEPENDENCIES = 3;
+
+	private final File workspace;
+	private final int javaModules;
+	private final int javaSources;
+	private final int cppProjects;
+	private final int cppTargets;
+	private final int cppSources;
+	private final int libraries;
+	private final int port;
+	private final Random random;
+
+	public WorkspaceGenerator(File workspace, int javaModules, int javaSources, int cppProjects, int cppTargets, int cppSources, int libraries, int port, long seed) {
+		this.workspace = workspace.getAbsoluteFile();
+		this.javaModules = javaModules;
+		this.javaSources = javaSources;
+		this.cppProjects = cppProjects;
+		this.cppTargets = cppTargets;
+		this.cppSources = cppSources;
+		this.libraries = libraries;
+		this.port = port;
+		this.random = new Random(seed);
+	}
+
+	public static void main(String... args) {
+
+		CommandArgumentParser parser = new CommandArgumentParser();
+		parser.addOption("help", false, "show command help");
+		parser.addOption("output", new File(FileTrees.benchDir(), "workspace"), "directory to generate the workspace in, existing content is deleted");
+		parser.addOption("java-modules", "20", "number of java modules");
+		parser.addOption("java-sources", "50", "number of source files in each java module");
+		parser.addOption("cpp-projects", "4", "number of c++ multi target projects");
+		parser.addOption("cpp-targets", "3", "number of targets in each c++ project");
+		parser.addOption("cpp-sources", "50", "number of source files in each c++ project");
+		parser.addOption("libraries", "30", "number of library artifacts in the maven repository");
+		parser.addOption("port", "8080", "port the repository server is run on");
+		parser.addOption("seed", "1", "seed for the dependencies between the modules and libraries");
+
+		try {
+
+			Arguments arguments = parser.parse(args);
+			if (arguments.flag("help")) {
+				System.out.println("WorkspaceGenerator < options >");
+				System.out.println(parser.printHelp());
+				System.exit(1);
+			}
+
+			File output = arguments.get("output");
+			WorkspaceGenerator generator = new WorkspaceGenerator(
+					output,
+					Integer.parseInt(arguments.get("java-modules")),
+					Integer.parseInt(arguments.get("java-sources")),
+					Integer.parseInt(arguments.get("cpp-projects")),
+					Integer.parseInt(arguments.get("cpp-targets")),
+					Integer.parseInt(arguments.get("cpp-sources")),
+					Integer.parseInt(arguments.get("libraries")),
+					Integer.parseInt(arguments.get("port")),
+					Long.parseLong(arguments.get("seed")));
+			generator.generate();
+			System.out.println("workspace generated: " + generator.workspace);
+
+		} catch (CommandArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * Generates the complete workspace, replacing any existing content of the workspace directory.
+	 */
+	public void generate() {
+
+		FileTrees.delete(this.workspace);
+		this.workspace.mkdirs();
+
+		List<List<Integer>> libraryDependencies = new ArrayList<>();
+		for (int i = 0; i < this.libraries; i++)
+			libraryDependencies.add(pick(i, MAX_LIBRARY_DEPENDENCIES));
+		generateRepository(libraryDependencies);
+
+		File stubCompiler = generateStubCompiler();
+
+		List<String> projects = new ArrayList<>();
+		for (int i = 0; i < this.javaModules; i++) {
+			generateJavaModule(i, pick(i, MAX_MODULE_DEPENDENCIES), pick(this.libraries, MAX_LIBRARY_DEPENDENCIES));
+			projects.add("java/module" + i);
+		}
+		for (int i = 0; i < this.cppProjects; i++) {
+			generateCppProject(i, stubCompiler);
+			projects.add("cpp/project" + i);
+		}
+		generateRoot(projects);
+
+		Properties properties = new Properties();
+		properties.setProperty("repository.port", Integer.toString(this.port));
+		properties.setProperty("repository.dir", REPOSITORY_DIRECTORY);
+		if (this.javaModules > 0) {
+			int leaf = this.javaModules - 1;
+			properties.setProperty("change.body", String.format("java/module%d/src/main/java/bench/module%d/Class%d.java", leaf, leaf, Math.max(this.javaSources - 1, 0)));
+			properties.setProperty("change.abi", "java/module0/src/main/java/bench/module0/Class0.java");
+		}
+		try (FileOutputStream stream = new FileOutputStream(new File(this.workspace, WORKSPACE_PROPERTIES))) {
+			properties.store(stream, "generated benchmark workspace");
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to write workspace properties", e);
+		}
+
+	}
+
+	/**
+	 * Picks an random set of indices below the limit, used for the dependencies of an module or library.
+	 */
+	protected List<Integer> pick(int limit, int max) {
+		List<Integer> picked = new ArrayList<>();
+		if (limit <= 0) return picked;
+		int count = 1 + this.random.nextInt(max);
+		for (int i = 0; i < count; i++) {
+			int index = this.random.nextInt(limit);
+			if (!picked.contains(index)) picked.add(index);
+		}
+		return picked;
+	}
+
+	protected void generateRoot(List<String> projects) {
+
+		StringBuilder source = new StringBuilder();
+		source.append("import java.io.File;\n\n");
+		source.append("import de.m_marvin.metabuild.core.script.BuildScript;\n");
+		source.append("import de.m_marvin.metabuild.core.tasks.BuildTask;\n\n");
+		source.append("public class Buildfile extends BuildScript {\n\n");
+		source.append("	@Override\n");
+		source.append("	public void init() {\n\n");
+		source.append("		BuildTask build = new BuildTask(\"build\");\n");
+		source.append("		build.group = \"build\";\n");
+		source.append("		BuildTask clean = new BuildTask(\"clean\");\n");
+		source.append("		clean.group = \"build\";\n\n");
+		for (String project : projects) {
+			String name = importName(project);
+			source.append(String.format("		importBuild(\"%s\", new File(\"%s\"));\n", name, project));
+			source.append(String.format("		build.dependsOn(\"%s:build\");\n", name));
+			source.append(String.format("		clean.dependsOn(\"%s:clean\");\n", name));
+		}
+		source.append("\n	}\n\n");
+		source.append("}\n");
+		write(new File(this.workspace, "build.meta"), source.toString());
+
+	}
+
+	protected static String importName(String project) {
+		return project.replace("/", "");
+	}
+
+	protected void generateJavaModule(int index, List<Integer> modules, List<Integer> libraries) {
+
+		File directory = new File(this.workspace, "java/module" + index);
+
+		StringBuilder source = new StringBuilder();
+		source.append("import java.io.File;\n\n");
+		source.append("import de.m_marvin.metabuild.java.script.JavaBuildScript;\n");
+		source.append("import de.m_marvin.metabuild.maven.types.Repository;\n\n");
+		source.append("public class Buildfile extends JavaBuildScript {\n\n");
+		source.append("	@Override\n");
+		source.append("	public void init() {\n\n");
+		source.append(String.format("		projectName = \"module%d\";\n\n", index));
+		source.append("		super.init();\n\n");
+		for (int module : modules) {
+			source.append(String.format("		importBuild(\"javamodule%d\", new File(\"../module%d\"));\n", module, module));
+			source.append(String.format("		compileJava.classpath.add(new File(\"../module%d/build/classes/main/java\"));\n", module));
+			source.append(String.format("		compileJava.dependsOn(\"javamodule%d:compileJava\");\n", module));
+		}
+		source.append("\n	}\n\n");
+		source.append("	@Override\n");
+		source.append("	public void repositories() {\n\n");
+		source.append(String.format("		dependencies.repository(new Repository(\"Benchmark Repository\", \"http://localhost:%d/maven\"));\n\n", this.port));
+		source.append("	}\n\n");
+		source.append("	@Override\n");
+		source.append("	public void dependencies() {\n\n");
+		source.append("		super.dependencies();\n\n");
+		for (int library : libraries)
+			source.append(String.format("		dependencies.implementation(\"%s:lib%d:%s\");\n", LIBRARY_GROUP, library, LIBRARY_VERSION));
+		source.append("\n	}\n\n");
+		source.append("}\n");
+		write(new File(directory, "build.meta"), source.toString());
+
+		for (int i = 0; i < Math.max(this.javaSources, 1); i++) {
+			StringBuilder java = new StringBuilder();
+			java.append(String.format("package bench.module%d;\n\n", index));
+			java.append(String.format("public class Class%d {\n\n", i));
+			java.append("	private final int[] values = new int[16];\n\n");
+			java.append("	public static int value() {\n");
+			java.append(String.format("		int value = %d %s;\n", i, BODY_MARKER));
+			if (i == 0) {
+				// the first class of each module uses the other modules and libraries, the others the class before them
+				for (int module : modules)
+					java.append(String.format("		value += bench.module%d.Class0.value();\n", module));
+				for (int library : libraries)
+					java.append(String.format("		value += %s.lib%d.Lib%d.value();\n", LIBRARY_GROUP, library, library));
+			} else {
+				java.append(String.format("		value += Class%d.value();\n", i - 1));
+			}
+			java.append("		return value;\n");
+			java.append("	}\n\n");
+			java.append("	public int sum() {\n");
+			java.append("		int sum = 0;\n");
+			java.append("		for (int v : this.values) sum += v;\n");
+			java.append("		return sum;\n");
+			java.append("	}\n\n");
+			java.append("	public void fill(int value) {\n");
+			java.append("		for (int i = 0; i < this.values.length; i++) this.values[i] = value + i;\n");
+			java.append("	}\n\n");
+			java.append("	" + ABI_MARKER + "\n\n");
+			java.append("}\n");
+			write(new File(directory, String.format("src/main/java/bench/module%d/Class%d.java", index, i)), java.toString());
+		}
+
+	}
+
+	protected void generateCppProject(int index, File stubCompiler) {
+
+		File directory = new File(this.workspace, "cpp/project" + index);
+		String compiler = stubCompiler.getAbsolutePath().replace("\\", "\\\\");
+
+		StringBuilder source = new StringBuilder();
+		source.append("import de.m_marvin.metabuild.cpp.script.CppMultiTargetBuildScript;\n");
+		source.append("import de.m_marvin.metabuild.cpp.tasks.CppLinkTask;\n\n");
+		source.append("public class Buildfile extends CppMultiTargetBuildScript {\n\n");
+		source.append("	// stub compiler which only writes the hash of its inputs to the output file\n");
+		source.append(String.format("	public String compiler = \"%s\";\n\n", compiler));
+		source.append("	@Override\n");
+		source.append("	public void init() {\n\n");
+		source.append(String.format("		projectName = \"project%d\";\n\n", index));
+		source.append(String.format("		for (int i = 0; i < %d; i++) {\n", Math.max(this.cppTargets, 1)));
+		source.append(String.format("			TargetConfig target = makeTarget(\"target\" + i, \"project%d_target\" + i + \".bin\");\n", index));
+		source.append("			target.compileCpp.compiler = compiler;\n");
+		source.append("			target.compileCpp.define(\"BENCH_TARGET\", Integer.toString(i));\n");
+		source.append("		}\n\n");
+		source.append("		super.init();\n\n");
+		source.append("	}\n\n");
+		source.append("	@Override\n");
+		source.append("	public void linking(CppLinkTask linker, String config) {\n\n");
+		source.append("		linker.linker = compiler;\n\n");
+		source.append("	}\n\n");
+		source.append("}\n");
+		write(new File(directory, "build.meta"), source.toString());
+
+		write(new File(directory, String.format("src/cpp/public/project%d.h", index)), String.format("#pragma once\n\nint project%d_value(int index);\n", index));
+		for (int i = 0; i < Math.max(this.cppSources, 1); i++) {
+			write(new File(directory, String.format("src/cpp/header/source%d.h", i)), String.format("#pragma once\n\nint source%d_value(int index);\n", i));
+			StringBuilder cpp = new StringBuilder();
+			cpp.append(String.format("#include \"source%d.h\"\n", i));
+			cpp.append(String.format("#include <project%d.h>\n\n", index));
+			if (i > 0) cpp.append(String.format("#include \"source%d.h\"\n\n", i - 1));
+			cpp.append(String.format("int source%d_value(int index) {\n", i));
+			cpp.append(String.format("	return index + %d%s;\n", i, i > 0 ? String.format(" + source%d_value(index)", i - 1) : ""));
+			cpp.append("}\n");
+			if (i == 0) {
+				cpp.append(String.format("\nint project%d_value(int index) {\n", index));
+				cpp.append("	return source0_value(index) + BENCH_TARGET;\n");
+				cpp.append("}\n");
+			}
+			write(new File(directory, String.format("src/cpp/source/source%d.cpp", i)), cpp.toString());
+		}
+
+	}
+
+	/**
+	 * Writes the stub compiler script, which accepts the arguments of the compile and link tasks.<br>
+	 * It writes an checksum of its input files to the output file and exits, the -v argument used to query the system includes prints nothing.
+	 */
+	protected File generateStubCompiler() {
+
+		boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+		File script = new File(this.workspace, windows ? "tools/stubcc.cmd" : "tools/stubcc");
+		if (windows) {
+			write(script, String.join("\r\n",
+					"@echo off",
+					"setlocal enabledelayedexpansion",
+					"set out=",
+					"set inputs=",
+					":loop",
+					"if \"%~1\"==\"\" goto done",
+					"if \"%~1\"==\"-o\" (set out=%~2& shift & shift & goto loop)",
+					"if \"%~1\"==\"-I\" (shift & shift & goto loop)",
+					"if \"%~1\"==\"-D\" (shift & shift & goto loop)",
+					"set arg=%~1",
+					"if not \"!arg:~0,1!\"==\"-\" set inputs=!inputs! \"%~1\"",
+					"shift",
+					"goto loop",
+					":done",
+					"if \"%out%\"==\"\" exit /b 0",
+					"type nul > \"%out%\"",
+					"for %%f in (%inputs%) do certutil -hashfile %%f MD5 >> \"%out%\"",
+					"exit /b 0",
+					""));
+		} else {
+			write(script, String.join("\n",
+					"#!/bin/sh",
+					"out=\"\"",
+					"inputs=\"\"",
+					"while [ $# -gt 0 ]; do",
+					"	case \"$1\" in",
+					"		-o) out=\"$2\"; shift 2 ;;",
+					"		-I|-D) shift 2 ;;",
+					"		-*) shift ;;",
+					"		*) inputs=\"$inputs $1\"; shift ;;",
+					"	esac",
+					"done",
+					"[ -z \"$out\" ] && exit 0",
+					"mkdir -p \"$(dirname \"$out\")\"",
+					"cat $inputs | cksum > \"$out\"",
+					""));
+			script.setExecutable(true);
+		}
+		return script;
+
+	}
+
+	/**
+	 * Generates the library artifacts in the maven repository, with the classes of all libraries compiled in one run.<br>
+	 * Each library depends on the libraries with the given indices.
+	 */
+	protected void generateRepository(List<List<Integer>> libraryDependencies) {
+
+		if (libraryDependencies.isEmpty()) return;
+
+		File sources = new File(this.workspace, "build/libraries/src");
+		File classes = new File(this.workspace, "build/libraries/classes");
+		List<String> compileArgs = new ArrayList<>(List.of("-d", classes.getPath(), "-nowarn"));
+		for (int i = 0; i < libraryDependencies.size(); i++) {
+			StringBuilder java = new StringBuilder();
+			java.append(String.format("package %s.lib%d;\n\n", LIBRARY_GROUP, i));
+			java.append(String.format("public class Lib%d {\n\n", i));
+			java.append("	public static int value() {\n");
+			java.append(String.format("		int value = %d;\n", i));
+			for (int dependency : libraryDependencies.get(i))
+				java.append(String.format("		value += %s.lib%d.Lib%d.value();\n", LIBRARY_GROUP, dependency, dependency));
+			java.append("		return value;\n");
+			java.append("	}\n\n");
+			java.append("}\n");
+			File file = new File(sources, String.format("lib%d/Lib%d.java", i, i));
+			write(file, java.toString());
+			compileArgs.add(file.getPath());
+		}
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("no java compiler available, the generator has to run on an JDK");
+		if (compiler.run(null, null, null, compileArgs.toArray(String[]::new)) != 0)
+			throw new IllegalStateException("failed to compile library classes");
+
+		File repository = new File(this.workspace, REPOSITORY_DIRECTORY + "/maven/" + LIBRARY_GROUP.replace('.', '/'));
+		for (int i = 0; i < libraryDependencies.size(); i++) {
+			String artifactId = "lib" + i;
+			File artifactDir = new File(repository, artifactId);
+			File versionDir = new File(artifactDir, LIBRARY_VERSION);
+			versionDir.mkdirs();
+
+			File classFile = new File(classes, String.format("%s/lib%d/Lib%d.class", LIBRARY_GROUP.replace('.', '/'), i, i));
+			File jar = new File(versionDir, String.format("%s-%s.jar", artifactId, LIBRARY_VERSION));
+			try (JarOutputStream stream = new JarOutputStream(new FileOutputStream(jar))) {
+				stream.putNextEntry(new JarEntry(String.format("%s/lib%d/Lib%d.class", LIBRARY_GROUP.replace('.', '/'), i, i)));
+				stream.write(Files.readAllBytes(classFile.toPath()));
+				stream.closeEntry();
+			} catch (IOException e) {
+				throw new UncheckedIOException("failed to write library jar: " + jar, e);
+			}
+			checksums(jar);
+
+			StringBuilder pom = new StringBuilder();
+			pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+			pom.append("	<modelVersion>4.0.0</modelVersion>\n");
+			pom.append(String.format("	<groupId>%s</groupId>\n", LIBRARY_GROUP));
+			pom.append(String.format("	<artifactId>%s</artifactId>\n", artifactId));
+			pom.append(String.format("	<version>%s</version>\n", LIBRARY_VERSION));
+			pom.append("	<dependencies>\n");
+			for (int dependency : libraryDependencies.get(i)) {
+				pom.append("		<dependency>\n");
+				pom.append(String.format("			<groupId>%s</groupId>\n", LIBRARY_GROUP));
+				pom.append(String.format("			<artifactId>lib%d</artifactId>\n", dependency));
+				pom.append(String.format("			<version>%s</version>\n", LIBRARY_VERSION));
+				pom.append("			<scope>compile</scope>\n");
+				pom.append("		</dependency>\n");
+			}
+			pom.append("	</dependencies>\n");
+			pom.append("</project>\n");
+			File pomFile = new File(versionDir, String.format("%s-%s.pom", artifactId, LIBRARY_VERSION));
+			write(pomFile, pom.toString());
+			checksums(pomFile);
+
+			StringBuilder metadata = new StringBuilder();
+			metadata.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			metadata.append("<metadata>\n");
+			metadata.append(String.format("	<groupId>%s</groupId>\n", LIBRARY_GROUP));
+			metadata.append(String.format("	<artifactId>%s</artifactId>\n", artifactId));
+			metadata.append("	<versioning>\n");
+			metadata.append(String.format("		<latest>%s</latest>\n", LIBRARY_VERSION));
+			metadata.append(String.format("		<release>%s</release>\n", LIBRARY_VERSION));
+			metadata.append(String.format("		<versions><version>%s</version></versions>\n", LIBRARY_VERSION));
+			metadata.append("	</versioning>\n");
+			metadata.append("</metadata>\n");
+			File metadataFile = new File(artifactDir, "maven-metadata.xml");
+			write(metadataFile, metadata.toString());
+			checksums(metadataFile);
+		}
+
+	}
+
+	protected static void checksums(File file) {
+		try {
+			byte[] content = Files.readAllBytes(file.toPath());
+			write(new File(file.getPath() + ".md5"), HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)));
+			write(new File(file.getPath() + ".sha1"), HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(content)));
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to read file for checksum: " + file, e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("checksum algorithm not available", e);
+		}
+	}
+
+	protected static void write(File file, String content) {
+		try {
+			file.getParentFile().mkdirs();
+			Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to write file: " + file, e);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package de.m_marvin.metabuild.core.tasks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.m_marvin.metabuild.bench.BenchmarkProject;
+import de.m_marvin.metabuild.bench.FileTrees;
+import de.m_marvin.metabuild.core.tasks.BuildTask.TaskState;
+
+/**
+ * Benchmarks the archive tasks on the generated file trees.<br>
+ * This benchmark is in the package of the tasks, because prepare() and run() of the UnZipTask are protected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ArchiveTaskBenchmark {
+
+	@Param({"10000", "100000", "500000"})
+	public int fileCount;
+
+	private BenchmarkProject project;
+	private ZipTask zip;
+	private UnZipTask unzip;
+
+	@Setup
+	public void setup() {
+		File tree = FileTrees.tree(this.fileCount);
+		this.project = BenchmarkProject.create("archive", String.join("\n",
+				"import java.io.File;",
+				"import de.m_marvin.metabuild.core.script.BuildScript;",
+				"import de.m_marvin.metabuild.core.tasks.UnZipTask;",
+				"import de.m_marvin.metabuild.core.tasks.ZipTask;",
+				"public class Buildfile extends BuildScript {",
+				"	@Override",
+				"	public void init() {",
+				"		ZipTask zip = new ZipTask(\"zip\");",
+				"		zip.entries.put(new File(" + BenchmarkProject.literal(tree) + "), \"\");",
+				"		zip.archive = new File(\"build/tree.zip\");",
+				"		UnZipTask unzip = new UnZipTask(\"unzip\");",
+				"		unzip.archives.add(zip.archive);",
+				"		unzip.output = new File(\"build/tree\");",
+				"	}",
+				"}"));
+		this.zip = (ZipTask) this.project.task("zip");
+		this.unzip = (UnZipTask) this.project.task("unzip");
+
+		// the archive to extract
+		this.zip.prepare();
+		if (!this.zip.run()) throw new IllegalStateException("failed to create benchmark archive");
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.project.close();
+	}
+
+	@State(Scope.Benchmark)
+	public static class PreparedZip {
+		@Setup(Level.Invocation)
+		public void setup(ArchiveTaskBenchmark benchmark) {
+			benchmark.zip.prepare();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class PreparedUnZip {
+		@Setup(Level.Invocation)
+		public void setup(ArchiveTaskBenchmark benchmark) {
+			// without an saved snapshot, the preparation always selects all archives for extraction
+			FileTrees.delete(new File(benchmark.project.directory(), "build/tree"));
+			benchmark.unzip.prepare();
+		}
+	}
+
+	@Benchmark
+	public boolean zipRun(PreparedZip prepared) {
+		return this.zip.run();
+	}
+
+	@Benchmark
+	public TaskState unzipPrepare() {
+		return this.unzip.prepare();
+	}
+
+	@Benchmark
+	public boolean unzipRun(PreparedUnZip prepared) {
+		return this.unzip.run();
+	}
+
+}
@@ -58,7 +58,9 @@ public interface IMeta {
 	public static final File DEFAULT_BUILD_FILE_NAME = new File("build.meta");
 	public static final File DEFAULT_BUILD_LOG_NAME = new File("build.log");
 	public static final File DEFAULT_CACHE_DIRECTORY = new File(System.getProperty("user.home") + "/.meta");
+	public static final File DEFAULT_PROFILE_FILE = new File("build-trace.json");
 	public static final int DEFAULT_TASK_THREADS = 8;
+	public static final long DEFAULT_BUILD_CACHE_SIZE = 5120;
 	
 	public static final String BUILD_SCRIPT_CLASS_NAME = "Buildfile";
 	public static final Pattern TASK_NAME_FILTER = Pattern.compile("((?<buildname>[\\d\\w]*):|)(?<taskname>[\\d\\w][\\d\\w\\-_]+)");
@@ -71,7 +73,7 @@ public interface IMeta {
 	
 	/**
 	 * Get a new instance of the metabuild main class.<br>
-	 * Only one instance can exist within a JVM at a time.
+	 * Multiple instances can exist within a JVM, each one builds its own project independently of the others.
 	 * @return
 	 */
 	public static IMeta instantiateMeta(ClassLoader classLoader) throws InstantiationException {
@@ -92,12 +94,12 @@ public interface IMeta {
 	public MetaState getState();
 
 	/**
-	 * Closes and releases the metabuild instance, after that, a new instance can be created.
+	 * Closes and releases the metabuild instance, it can not be used anymore after that.
 	 */
 	public void terminate();
 	
 	/**
-	 * Closes the metabuild instances resources, but does not release the static instance variable it can still be used for an another session (still no new instance can be created after closing)
+	 * Closes the metabuild instances resources, but does not release the instance, it can still be used for an another build
 	 */
 	public void close();
 	
@@ -137,6 +139,81 @@ public interface IMeta {
 	 */
 	public void setTaskThreads(int taskThreads);
 	
+	/**
+	 * If set to true, the prepare phase of independent tasks is run in parallel on the task threads.<br>
+	 * Tasks are still only prepared after all of their dependencies have been prepared.
+	 * @param parallelPrepare true to prepare tasks in parallel
+	 */
+	public void setParallelPrepare(boolean parallelPrepare);
+	
+	/**
+	 * Limits the amount of an resource the tasks running in parallel can claim together.<br>
+	 * Available resources are cpu (cores), mem (megabytes), io (concurrent disk operations) and net (concurrent connections).<br>
+	 * By default no resource is limited, only the number of task threads.
+	 * @param resource The name of the resource
+	 * @param limit The max. amount of the resource, or a negative value to remove the limit
+	 */
+	public void setResourceLimit(String resource, long limit);
+	
+	/**
+	 * If set to true, tasks which do not depend on an failed task continue to run after an task failed.<br>
+	 * Otherwise no further tasks are started after the first failure.
+	 * All failed tasks are reported at the end of the build.
+	 * @param keepGoing true to keep running independent tasks after an failure
+	 */
+	public void setKeepGoing(boolean keepGoing);
+	
+	/**
+	 * If set to true, each task runs on its own virtual thread, so tasks waiting for processes, network or disk do not block an task thread.<br>
+	 * The number of tasks running in parallel is then limited by the cpu resource pool instead of the number of task threads.<br>
+	 * Requires an java runtime with virtual thread support, otherwise the task threads are used.
+	 * @param virtualThreads true to run tasks on virtual threads
+	 */
+	public void setVirtualThreads(boolean virtualThreads);
+	
+	/**
+	 * If set to true, the outputs of cacheable tasks are stored in the build cache in the cache directory.<br>
+	 * If an task has to run again with inputs it already did run with before, its outputs are restored from the cache instead.
+	 * @param buildCache true to use the build cache
+	 */
+	public void setBuildCache(boolean buildCache);
+	
+	/**
+	 * Limits the size of the build cache, the least recently used entries are removed if it grows larger.
+	 * @param megabytes The max. size of the build cache in megabytes
+	 */
+	public void setBuildCacheSize(long megabytes);
+	
+	/**
+	 * Configures an remote build cache server behind the local build cache.<br>
+	 * Outputs missing in the local cache are downloaded from the server, in parallel to the execution of other tasks.
+	 * @param url The base URL of the remote cache, or null to use no remote cache
+	 * @param push If new outputs should be uploaded to the remote cache
+	 */
+	public void setRemoteBuildCache(String url, boolean push);
+	
+	/**
+	 * Records an trace of the next build, which is written to the file when the build has completed.<br>
+	 * The trace contains the build phases, the prepare and run spans of the tasks, child processes and downloads,
+	 * in the Chrome trace event format which can be opened in chrome://tracing or the Perfetto UI.
+	 * @param profileFile The file to write the trace to, or null to not record an trace
+	 */
+	public void setProfileFile(File profileFile);
+	
+	/**
+	 * If set to true, the tasks configured by the last build are kept if the build files and plugins did not change since then.<br>
+	 * The next call to initBuild() then skips the init phase, the kept tasks are prepared again before they run.
+	 * @param configurationCache true to keep the configured tasks between builds
+	 */
+	public void setConfigurationCache(boolean configurationCache);
+	
+	/**
+	 * Reports files which changed since the last build.<br>
+	 * If the configured tasks are kept for the next build, only the tasks affected by the changes are prepared again, instead of all tasks.
+	 * @param changedFiles The changed files and directories
+	 */
+	public void filesChanged(Collection<File> changedFiles);
+	
 	/**
 	 * @param statusCallback A callback to receive status updates about the running tasks
 	 */
@@ -188,6 +265,12 @@ public interface IMeta {
 	 */
 	public Collection<File> getBuildfileClasspath();
 	
+	/**
+	 * Returns the files which have to be watched to detect changes requiring an new build.<br>
+	 * These are the declared inputs of the tasks of the last build, which are not produced by other tasks, and the loaded build files and plugins.
+	 */
+	public Collection<File> getWatchFiles();
+	
 	/**
 	 * Attempts to initialize using the build file at the default location.
 	 * @return true if and only if the init phase did complete successfully.
@@ -0,0 +1,164 @@
+package de.m_marvin.metabuild.api.core.daemon;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.m_marvin.metabuild.api.core.IMeta;
+
+/**
+ * Thin client for the metabuild daemon.<br>
+ * The daemon keeps an metabuild instance for an project directory loaded between builds, so build requests do not have to start and warm up an new JVM.
+ * Requests are send over an local socket, the address of the daemon is stored in an port file in the cache directory.
+ */
+public class MetaDaemonClient {
+
+	public static final String DAEMON_MAIN_CLASS = "de.m_marvin.metabuild.core.cli.MetaDaemon";
+	public static final String DAEMON_DIRECTORY = "daemons";
+	public static final int PROTOCOL_VERSION = 1;
+	public static final int FRAME_OUTPUT = 1;
+	public static final int FRAME_EXIT = 2;
+	public static final long DAEMON_START_TIMEOUT_SECONDS = 30;
+
+	/* Exit code returned if the build could not be run on the daemon */
+	public static final int DAEMON_UNAVAILABLE = Integer.MIN_VALUE;
+
+	private MetaDaemonClient() {}
+
+	/**
+	 * @return The file the daemon of the working directory publishes its port and access token to
+	 */
+	public static File portFile(File cacheDir, File workingDir) {
+		String path;
+		try {
+			path = workingDir.getCanonicalPath();
+		} catch (IOException e) {
+			path = workingDir.getAbsolutePath();
+		}
+		return new File(cacheDir, DAEMON_DIRECTORY + "/" + Integer.toHexString(path.hashCode()) + ".port");
+	}
+
+	/**
+	 * Searches the arguments for an cache directory option.
+	 * @return The cache directory passed in the arguments or the default cache directory
+	 */
+	public static File cacheDir(String[] args) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].matches("-{1,2}cache-dir")) return new File(args[i + 1]);
+		}
+		return IMeta.DEFAULT_CACHE_DIRECTORY;
+	}
+
+	/**
+	 * Runs the build on the daemon for the working directory, the daemon is started if it is not yet running.
+	 * @param workingDir The project directory
+	 * @param args The command arguments to run the build with
+	 * @param daemonCommand The command to start an new daemon, the arguments are appended to it
+	 * @param output The stream to print the build output to
+	 * @return The exit code of the build or DAEMON_UNAVAILABLE if the daemon could not be reached
+	 */
+	public static int runBuild(File workingDir, String[] args, List<String> daemonCommand, PrintStream output) {
+
+		File portFile = portFile(absolute(cacheDir(args), workingDir), workingDir);
+
+		int exitCode = request(portFile, workingDir, args, output);
+		if (exitCode != DAEMON_UNAVAILABLE) return exitCode;
+
+		// no daemon running, start new one
+		portFile.delete();
+		List<String> command = new ArrayList<>(daemonCommand);
+		command.addAll(List.of(args));
+		ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.directory(workingDir);
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(new File(portFile.getParentFile(), portFile.getName() + ".log"));
+		try {
+			portFile.getParentFile().mkdirs();
+			Process daemon = processBuilder.start();
+			long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DAEMON_START_TIMEOUT_SECONDS);
+			while (!portFile.isFile() && daemon.isAlive() && System.currentTimeMillis() < timeout)
+				daemon.waitFor(50, TimeUnit.MILLISECONDS);
+		} catch (IOException | InterruptedException e) {
+			return DAEMON_UNAVAILABLE;
+		}
+
+		return request(portFile, workingDir, args, output);
+
+	}
+
+	private static File absolute(File file, File workingDir) {
+		return file.isAbsolute() ? file : new File(workingDir, file.getPath());
+	}
+
+	/**
+	 * Sends the build request to the daemon and prints its output until the build completed.
+	 * @return The exit code of the build or DAEMON_UNAVAILABLE if the daemon could not be reached
+	 */
+	private static int request(File portFile, File workingDir, String[] args, PrintStream output) {
+
+		if (!portFile.isFile()) return DAEMON_UNAVAILABLE;
+
+		int port;
+		String token;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(portFile), StandardCharsets.UTF_8))) {
+			port = Integer.parseInt(reader.readLine());
+			token = reader.readLine();
+		} catch (IOException | NumberFormatException e) {
+			return DAEMON_UNAVAILABLE;
+		}
+
+		Socket socket;
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		} catch (IOException e) {
+			return DAEMON_UNAVAILABLE;
+		}
+
+		try (socket) {
+
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(PROTOCOL_VERSION);
+			out.writeUTF(token);
+			out.writeUTF(workingDir.getAbsolutePath());
+			out.writeInt(args.length);
+			for (String arg : args) out.writeUTF(arg);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			while (true) {
+				int frame = in.readByte();
+				if (frame == FRAME_OUTPUT) {
+					byte[] data = new byte[in.readInt()];
+					in.readFully(data);
+					output.write(data);
+					output.flush();
+				} else if (frame == FRAME_EXIT) {
+					return in.readInt();
+				} else {
+					throw new IOException("invalid daemon response frame: " + frame);
+				}
+			}
+
+		} catch (EOFException e) {
+			output.println("\033[31mconnection to meta daemon lost!\033[0m");
+			return -1;
+		} catch (IOException e) {
+			output.println("\033[31mcommunication with meta daemon failed: " + e.getMessage() + "\033[0m");
+			return -1;
+		}
+
+	}
+
+}
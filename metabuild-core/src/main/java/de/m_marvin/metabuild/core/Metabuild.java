@@ -10,28 +10,37 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.net.MalformedURLException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Queue;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.jar.Attributes;
-import java.util.jar.JarFile;
 import java.util.stream.Stream;
 
 import de.m_marvin.basicxml.internal.StackList;
@@ -39,6 +48,8 @@ import de.m_marvin.metabuild.api.core.IMeta;
 import de.m_marvin.metabuild.api.core.devenv.ISourceIncludes;
 import de.m_marvin.metabuild.api.core.tasks.MetaGroup;
 import de.m_marvin.metabuild.api.core.tasks.MetaTask;
+import de.m_marvin.metabuild.core.cache.BuildCache;
+import de.m_marvin.metabuild.core.cache.RemoteBuildCache;
 import de.m_marvin.metabuild.core.cli.OutputHandler;
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.exception.BuildScriptException;
@@ -49,8 +60,14 @@ import de.m_marvin.metabuild.core.script.compile.ScriptCompiler;
 import de.m_marvin.metabuild.core.tasks.BuildTask;
 import de.m_marvin.metabuild.core.tasks.BuildTask.TaskState;
 import de.m_marvin.metabuild.core.tasks.RootTask;
+import de.m_marvin.metabuild.core.tasks.TaskDurations;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
+import de.m_marvin.metabuild.core.tasks.TaskGraph;
+import de.m_marvin.metabuild.core.util.BuildTrace;
 import de.m_marvin.metabuild.core.util.DynamicFileListClassLoader;
 import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.metabuild.core.util.PluginIndex;
+import de.m_marvin.metabuild.core.util.VirtualThreads;
 import de.m_marvin.simplelogging.Log;
 import de.m_marvin.simplelogging.api.Logger;
 import de.m_marvin.simplelogging.impl.MultiLogger;
@@ -65,7 +82,10 @@ public final class Metabuild implements IMeta {
 	
 	public static final String LOG_TAG = "Metabuild";
 
-	private static Metabuild instance;
+	/* All metabuild instances (sessions) existing in this VM */
+	private static final Set<Metabuild> instances = ConcurrentHashMap.newKeySet();
+	/* The session bound to the current thread, returned by get() */
+	private static final ThreadLocal<Metabuild> session = new ThreadLocal<>();
 	
 	/* Working directory of metabuild, normally the project root */
 	private File workingDirectory;
@@ -87,30 +107,80 @@ public final class Metabuild implements IMeta {
 	private Logger terminalLogger = new SystemLogger();
 	/* Number of allowed tasks to spawn for processing tasks in parallel */
 	private int taskThreads;
+	/* Max. amount of each resource the running tasks can claim together, unlimited if not set */
+	private final Map<TaskResource, Long> resourceLimits = new EnumMap<>(TaskResource.class);
+	/* Amount of each resource claimed by the currently running tasks */
+	private final Map<TaskResource, Long> resourcesUsed = new EnumMap<>(TaskResource.class);
 	/* Set to true if the next build process should re-download all external dependencies */
 	private boolean refreshDependencies = false;
 	/* Set to true if the next build process should skip the actual execution of tasks, and only run the prepare phase */
 	private boolean skipTaskRun = false;
 	/* If all tasks should be run even if they are up to date */
 	private boolean forceRunTasks = false;
+	/* If the prepare phase of independent tasks should run in parallel */
+	private boolean parallelPrepare = false;
+	/* If independent tasks should continue to run after an task failed */
+	private boolean keepGoing = false;
+	/* If tasks should run on virtual threads, limited by the cpu pool instead of the number of task threads */
+	private boolean virtualThreads = false;
+	/* If the outputs of cacheable tasks are stored in and restored from the build cache */
+	private boolean buildCacheEnabled = true;
+	/* Max. size of the build cache in megabytes */
+	private long buildCacheSize = DEFAULT_BUILD_CACHE_SIZE;
+	/* URL of the remote build cache and if outputs are uploaded to it, url is null if no remote cache is used */
+	private String remoteCacheUrl = null;
+	private boolean remoteCachePush = false;
+	/* Cache for task outputs in the cache directory, created on first use */
+	private BuildCache buildCache;
+	/* File to write an trace of the next build to, null if no trace is recorded */
+	private File profileFile = null;
+	/* Trace of the current build, only exists while an build is running with an profile file set */
+	private BuildTrace buildTrace;
+	/* If the configured tasks are kept for the next build while the build files and plugins are unchanged */
+	private boolean configurationCache = false;
+	/* The build file and the modification times of all build files and plugins the configured tasks were loaded from */
+	private File configuredBuildFile;
+	private Map<File, Long> configurationFiles;
+	/* Files reported as changed since the last build, null if unknown */
+	private Set<File> changedFiles;
 	/* Current state of this metabuild instance */
 	private MetaState phase = MetaState.PREINIT;
-	/* Currently active build script instance */
-	private StackList<BuildScript> buildstack = new StackList<>();
+	/* Currently active build script instances, each thread has its own stack so tasks of different builds can run in parallel */
+	private final ThreadLocal<StackList<BuildScript>> buildstack = ThreadLocal.withInitial(StackList::new);
+	/* The task depending on all tasks requested to run, the last task in the task graph */
+	private final RootTask rootTask = new RootTask();
 	/* Imported build script instances */
 	private Map<String, BuildScript> imports = new HashMap<String, BuildScript>();
 	/* Import aliases */
 	private Map<String, String> importAlias = new HashMap<String, String>();
-	/* Task to TaskNode map, nodes combine one BuildTask and its dependent tasks */
-	private Map<BuildTask, TaskNode> task2node = new HashMap<>();
-	/* Root TaskNode for the current build task tree */
-	private TaskNode taskTree;
+	/* Builder for the task graph while it is prepared */
+	private TaskGraph.Builder taskGraphBuilder;
+	/* Tasks already visited while building the current task graph, including the ones which do not have to run */
+	private Set<BuildTask> taskVisited = new HashSet<>();
+	/* Graph of the tasks to execute for the current build, the root task is the last one in the graph */
+	private TaskGraph taskGraph;
+	/* Number of unfinished dependencies of each task in the task graph */
+	private int[] taskPending;
+	/* Number of tasks submitted to the executor which have not yet finished */
+	private int tasksRunning;
+	/* Tasks which are ready to run but not yet submitted to the executor, the ones with the longest remaining path first */
+	private PriorityQueue<Integer> taskReady;
+	/* Estimated duration of the longest path from each task to the end of the build */
+	private long[] taskPriority;
+	/* Wall time in nanoseconds each task of the current build took to complete */
+	private long[] taskTimes;
+	/* Run times of the tasks in previous builds, loaded from the cache directory */
+	private TaskDurations taskDurations;
+	/* The exceptions thrown by the tasks of the current build, by task id in order of occurrence */
+	private Map<Integer, Throwable> taskFailures = new LinkedHashMap<>();
+	/* Number of tasks which could not run because an dependency failed */
+	private int tasksIncomplete;
 	/* Queue of build tasks currently executed by the task threads */
 	private BlockingQueue<Runnable> taskQueue;
 	/* Executor for build tasks */
-	private ThreadPoolExecutor taskExecutor;
+	private ExecutorService taskExecutor;
 	/* Set if an external abort request was issued and reset if abort succedded */
-	private boolean doAbort = false;
+	private volatile boolean doAbort = false;
 	/* Compiler for loading and instantiating build script */
 	private final ScriptCompiler buildCompiler;
 	/* Map of registered tasks of the current build script */
@@ -126,18 +196,18 @@ public final class Metabuild implements IMeta {
 	private OutputHandler outputHandler = null;
 	/* ClassLoader able to load all plugins found in any project which has been loaded in this session */
 	private DynamicFileListClassLoader pluginLoader = new DynamicFileListClassLoader(Thread.currentThread().getContextClassLoader());
+	/* Plugin names and packages of the plugin jars, loaded from the cache directory */
+	private PluginIndex pluginIndex;
 	
 	private String metabuildTitle;
 	private String metabuildVersion;
 	
 	/**
 	 * Instantiates a new metabuild instance.<br>
-	 * Only one instance can be created in the runtime environment at a time
-	 * @param workingDirectory The working directory of the instance, usual the directory containing the projects build file
+	 * Multiple instances can exist in the same VM, each one is an independent session with its own build, caches, logger and executors.
 	 */
 	public Metabuild() {
-		if (instance != null) throw MetaInitError.msg("can't instantiate multiple metabuild instances in same VM!");
-		instance = this;
+		instances.add(this);
 		
 		setLogFile(DEFAULT_BUILD_LOG_NAME);
 		setTaskThreads(DEFAULT_TASK_THREADS);
@@ -168,6 +238,8 @@ public final class Metabuild implements IMeta {
 	
 	@Override
 	public void close() {
+		closeBuildCache();
+		this.buildCompiler.close();
 		try {
 			this.pluginLoader.close();
 		} catch (IOException e) {
@@ -180,11 +252,23 @@ public final class Metabuild implements IMeta {
 			this.logFile = null;
 			this.logger = new StreamLogger(OutputStream.nullOutputStream());
 		}
-		this.task2node.clear();
+		resetBuild();
+	}
+	
+	/**
+	 * Discards the loaded build and returns to the IDLE state, the plugins and the log stay open for the next build.
+	 */
+	private void resetBuild() {
+		this.taskGraphBuilder = null;
+		this.taskVisited.clear();
 		this.taskDependencies.clear();
 		this.sourceIncludes.clear();
-		this.taskTree = null;
-		this.buildstack.clear();
+		this.taskGraph = null;
+		this.taskPending = null;
+		this.taskReady = null;
+		this.taskPriority = null;
+		this.taskTimes = null;
+		this.buildstack.get().clear();
 		stateTransition(MetaState.IDLE, MetaState.values());
 	}
 	
@@ -193,6 +277,7 @@ public final class Metabuild implements IMeta {
 			logger().debugt(LOG_TAG, "STATE TRANSITION: %s >>> %s", this.phase.name(), to.name());
 			logger().debugt(LOG_TAG, "UNRECOVERABLE ERROR TERMINATION REQUIRED");
 			this.phase = MetaState.ERROR;
+			tracePhase(to);
 			return;
 		}
 		if (this.phase == to) {
@@ -203,6 +288,7 @@ public final class Metabuild implements IMeta {
 			if (s == this.phase) {
 				logger().debugt(LOG_TAG, "STATE TRANSITION: %s >>> %s", this.phase.name(), to.name());
 				this.phase = to;
+				tracePhase(to);
 				return;
 			}
 		logger().debugt(LOG_TAG, "INVALID STATE TRANSITION: %s >X> %s", this.phase.name(), to.name());
@@ -211,14 +297,17 @@ public final class Metabuild implements IMeta {
 		throw BuildScriptException.msg("Illegal state transition error: %s to %s", this.phase.name(), to.name());
 	}
 	
+	private void tracePhase(MetaState phase) {
+		if (this.buildTrace == null) return;
+		this.buildTrace.phase(phase.isRunning() && phase != MetaState.READY ? phase.name() : null);
+	}
+	
 	@Override
 	public void terminate() {
-		if (instance != null) {
-			if (instance != this)
-				throw MetaInitError.msg("termination call on non active instance of metabuild!");
-			close();
-		}
-		instance = null;
+		if (!instances.remove(this))
+			throw MetaInitError.msg("termination call on already terminated instance of metabuild!");
+		close();
+		if (session.get() == this) session.remove();
 	}
 
 	@Override
@@ -269,12 +358,144 @@ public final class Metabuild implements IMeta {
 		return forceRunTasks;
 	}
 	
+	@Override
+	public void setParallelPrepare(boolean parallelPrepare) {
+		this.parallelPrepare = parallelPrepare;
+	}
+	
+	public boolean isParallelPrepare() {
+		return parallelPrepare;
+	}
+	
+	@Override
+	public void setKeepGoing(boolean keepGoing) {
+		this.keepGoing = keepGoing;
+	}
+	
+	public boolean isKeepGoing() {
+		return keepGoing;
+	}
+	
+	@Override
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+	
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	@Override
+	public void setBuildCache(boolean buildCache) {
+		this.buildCacheEnabled = buildCache;
+	}
+	
+	@Override
+	public synchronized void setBuildCacheSize(long megabytes) {
+		if (megabytes < 0) throw new IllegalArgumentException("build cache size must be >= 0!");
+		if (megabytes != this.buildCacheSize) closeBuildCache();
+		this.buildCacheSize = megabytes;
+	}
+	
+	@Override
+	public synchronized void setRemoteBuildCache(String url, boolean push) {
+		if (url != null && url.isBlank()) url = null;
+		if (!Objects.equals(url, this.remoteCacheUrl) || push != this.remoteCachePush) closeBuildCache();
+		this.remoteCacheUrl = url;
+		this.remoteCachePush = push;
+	}
+	
+	/**
+	 * @return The cache for the outputs of cacheable tasks, or null if the build cache is disabled
+	 */
+	public synchronized BuildCache buildCache() {
+		if (!this.buildCacheEnabled) return null;
+		if (this.buildCache == null) {
+			RemoteBuildCache remote = null;
+			if (this.remoteCacheUrl != null) {
+				try {
+					remote = new RemoteBuildCache(this.remoteCacheUrl);
+				} catch (MalformedURLException e) {
+					logger().warnt(LOG_TAG, "invalid remote build cache URL, using local cache only: %s", this.remoteCacheUrl);
+				}
+			}
+			this.buildCache = new BuildCache(new File(cacheDir(), BuildCache.CACHE_DIRECTORY), this.buildCacheSize * 1024 * 1024, remote, this.remoteCachePush, logger());
+		}
+		return this.buildCache;
+	}
+	
+	@Override
+	public void setProfileFile(File profileFile) {
+		this.profileFile = profileFile;
+	}
+	
+	@Override
+	public void setConfigurationCache(boolean configurationCache) {
+		this.configurationCache = configurationCache;
+	}
+	
+	@Override
+	public synchronized void filesChanged(Collection<File> changedFiles) {
+		if (this.changedFiles == null) this.changedFiles = new HashSet<>();
+		changedFiles.forEach(f -> this.changedFiles.add(FileUtility.absolute(f, workingDir())));
+	}
+	
+	/**
+	 * @return The trace of the current build, or null if no trace is recorded
+	 */
+	public BuildTrace buildTrace() {
+		return this.buildTrace;
+	}
+	
+	/**
+	 * Writes the trace of the current build to the profile file, if one is recorded.
+	 */
+	private void writeBuildTrace() {
+		if (this.buildTrace == null) return;
+		File traceFile = FileUtility.absolute(this.profileFile, workingDir());
+		try {
+			this.buildTrace.write(traceFile);
+			logger().infot(LOG_TAG, "build trace written to: %s", traceFile);
+		} catch (IOException e) {
+			logger().warnt(LOG_TAG, "unable to write build trace: %s - %s", traceFile, e.getMessage());
+		}
+		this.buildTrace = null;
+	}
+	
+	private synchronized void closeBuildCache() {
+		if (this.buildCache != null) this.buildCache.close();
+		this.buildCache = null;
+	}
+	
 	@Override
 	public void setTaskThreads(int taskThreads) {
 		if (taskThreads <= 0) throw new IllegalArgumentException("number of threads must be >= 1!");
 		this.taskThreads = taskThreads;
 	}
 
+	@Override
+	public void setResourceLimit(String resource, long limit) {
+		TaskResource res = TaskResource.named(resource);
+		if (res == null) throw new IllegalArgumentException("unknown task resource: " + resource);
+		if (limit < 0) {
+			this.resourceLimits.remove(res);
+		} else {
+			this.resourceLimits.put(res, limit);
+		}
+	}
+	
+	/**
+	 * @return The max. amount of the resource the running tasks can claim together, or -1 if not limited
+	 */
+	public long getResourceLimit(TaskResource resource) {
+		Long limit = this.resourceLimits.get(resource);
+		if (limit != null) return limit;
+		// without the thread limit, the cpu pool defaults to the available processors
+		if (resource == TaskResource.CPU && runsOnVirtualThreads())
+			return Runtime.getRuntime().availableProcessors();
+		return -1;
+	}
+	
 	@Override
 	public void addStatusCallback(IStatusCallback statusCallback) {
 		this.statusCallback.add(statusCallback);
@@ -342,11 +563,51 @@ public final class Metabuild implements IMeta {
 	}
 	
 	/**
+	 * Returns the metabuild instance (session) the current thread works for.<br>
+	 * The threads calling into an instance and the task threads of an instance are bound to it.
+	 * Other threads can only access the instance if it is the only one in this VM.
 	 * @return The current metabuild instance
 	 */
 	public static Metabuild get() {
-		if (instance == null) throw MetaInitError.msg("metabuild instance not yet created in this VM!");
-		return instance;
+		Metabuild mb = session.get();
+		if (mb != null) return mb;
+		Iterator<Metabuild> iterator = instances.iterator();
+		if (!iterator.hasNext()) throw MetaInitError.msg("metabuild instance not yet created in this VM!");
+		mb = iterator.next();
+		if (iterator.hasNext()) throw MetaInitError.msg("multiple metabuild instances exist, but none is bound to the current thread!");
+		return mb;
+	}
+	
+	/**
+	 * Returns the metabuild instance (session) the current thread works for, like get(), but does not fail if there is none.<br>
+	 * Used by utilities which can also run outside of an build.
+	 * @return The current metabuild instance or null
+	 */
+	public static Metabuild find() {
+		Metabuild mb = session.get();
+		if (mb != null) return mb;
+		Iterator<Metabuild> iterator = instances.iterator();
+		if (!iterator.hasNext()) return null;
+		mb = iterator.next();
+		return iterator.hasNext() ? null : mb;
+	}
+	
+	/**
+	 * Binds this instance to the current thread, until the returned previous session is restored by leaveSession().
+	 * @return The session previously bound to the current thread, or null
+	 */
+	private Metabuild enterSession() {
+		Metabuild previous = session.get();
+		session.set(this);
+		return previous;
+	}
+	
+	private void leaveSession(Metabuild previous) {
+		if (previous == null) {
+			session.remove();
+		} else {
+			session.set(previous);
+		}
 	}
 	
 	@Override
@@ -478,18 +739,18 @@ public final class Metabuild implements IMeta {
 		}
 	}
 	
-	private Optional<String> checkPlugin(File pluginFile) {
-		try {
-			JarFile jar = new JarFile(pluginFile);
-			Attributes attributes = jar.getManifest().getMainAttributes();
-			String pluginName = attributes.getValue("Metabuild-Plugin-Name");
-			String versionName = attributes.getValue("Implementation-Version");
-			jar.close();
-			return pluginName != null ? Optional.of(String.format("(%s) %s", pluginName, versionName)) : Optional.empty();
-			
-		} catch (IOException e) {
-			return Optional.empty();
+	private Optional<PluginIndex.Entry> checkPlugin(File pluginFile) {
+		if (this.pluginIndex == null) {
+			this.pluginIndex = new PluginIndex(new File(cacheDir(), "plugins.txt"));
+			if (!this.pluginIndex.load())
+				logger().warnt(LOG_TAG, "could not load plugin index, opening all plugins");
 		}
+		return this.pluginIndex.check(pluginFile);
+	}
+	
+	private void savePluginIndex() {
+		if (this.pluginIndex != null && !this.pluginIndex.save())
+			logger().warnt(LOG_TAG, "could not save plugin index to cache directory");
 	}
 	
 	/**
@@ -498,7 +759,7 @@ public final class Metabuild implements IMeta {
 	 */
 	public boolean preInit() {
 		if (this.phase.isRunning()) {
-			close();
+			resetBuild();
 			return true;
 		}
 		
@@ -549,12 +810,13 @@ public final class Metabuild implements IMeta {
 			logger().infot(LOG_TAG, "search system plugins: %s", this.metaHome);
 			for (File pluginFile : pluginFiles) {
 				if (!FileUtility.getExtension(pluginFile).equalsIgnoreCase("jar")) continue;
-				Optional<String> pluginInfo = checkPlugin(pluginFile);
+				Optional<PluginIndex.Entry> pluginInfo = checkPlugin(pluginFile);
 				if (pluginInfo.isEmpty()) continue;
-				this.pluginLoader.addFile(pluginFile);
-				logger().infot(LOG_TAG, "- %s %s", pluginFile.getName(), pluginInfo.get());
+				this.pluginLoader.addFile(pluginFile, pluginInfo.get().packages());
+				logger().infot(LOG_TAG, "- %s %s", pluginFile.getName(), pluginInfo.get().info());
 			}
 		}
+		savePluginIndex();
 		stateTransition(MetaState.IDLE, MetaState.PREINIT);
 		return true;
 	}
@@ -574,6 +836,27 @@ public final class Metabuild implements IMeta {
 		return classpathFiles;
 	}
 	
+	@Override
+	public Collection<File> getWatchFiles() {
+		Set<File> inputs = new LinkedHashSet<>();
+		Set<Path> outputs = new HashSet<>();
+		for (BuildTask task : this.registeredTasks.values()) {
+			if (!task.didRun()) continue;
+			inputs.addAll(task.inputFiles());
+			task.outputFiles().forEach(f -> outputs.add(f.toPath()));
+		}
+		// inputs produced by other tasks or managed by metabuild in the cache directory change with each build
+		if (cacheDir() != null) outputs.add(cacheDir().toPath());
+		inputs.removeIf(file -> {
+			for (Path path = file.toPath(); path != null; path = path.getParent())
+				if (outputs.contains(path)) return true;
+			return false;
+		});
+		if (this.configurationFiles != null)
+			inputs.addAll(this.configurationFiles.keySet());
+		return inputs;
+	}
+	
 	public File buildWorkingDir() {
 		BuildScript buildscript = peekBuild();
 		if (buildscript == null) return workingDir();
@@ -604,10 +887,96 @@ public final class Metabuild implements IMeta {
 	
 	@Override
 	public boolean initBuild(File buildFile) {
+		Metabuild previous = enterSession();
+		try {
+			this.buildTrace = this.profileFile != null ? new BuildTrace() : null;
+			if (reuseConfiguration(buildFile)) return true;
+			if (loadBuild(buildFile)) return true;
+			writeBuildTrace();
+			return false;
+		} finally {
+			leaveSession(previous);
+		}
+	}
+	
+	/**
+	 * Keeps the tasks configured by the last build, if the configuration cache is enabled and no build file or plugin changed since then.<br>
+	 * If changed files were reported, only the tasks affected by them are reset to be prepared again, otherwise all tasks are reset.
+	 * @param buildFile The build file requested to load
+	 * @return true if the configured tasks are kept and the init phase can be skipped
+	 */
+	private boolean reuseConfiguration(File buildFile) {
+		if (!this.configurationCache || this.phase != MetaState.READY || this.configurationFiles == null) return false;
+		if (buildFile != null)
+			buildFile = FileUtility.absolute(buildFile, workingDir());
+		if (!Objects.equals(buildFile, this.configuredBuildFile)) return false;
+		for (var entry : this.configurationFiles.entrySet()) {
+			if (entry.getKey().lastModified() != entry.getValue()) {
+				logger().infot(LOG_TAG, "configuration changed: %s", entry.getKey());
+				return false;
+			}
+		}
+		
+		int reset = 0;
+		synchronized (this) {
+			for (BuildTask task : this.registeredTasks.values()) {
+				if (!task.didRun()) continue;
+				if (this.changedFiles != null && task.state() == TaskState.UPTODATE && !isAffected(task, this.changedFiles)) continue;
+				task.reset();
+				reset++;
+			}
+			this.changedFiles = null;
+		}
+		logger().infot(LOG_TAG, "build files unchanged, keeping %d configured tasks, %d to prepare again", this.registeredTasks.size(), reset);
+		return true;
+	}
+	
+	/**
+	 * Checks if an task is affected by changed files.<br>
+	 * Tasks without declared inputs are always affected, otherwise an changed file has to be in one of the inputs or next to an input file.
+	 */
+	private static boolean isAffected(BuildTask task, Set<File> changedFiles) {
+		if (task.inputFiles().isEmpty()) return true;
+		for (File input : task.inputFiles()) {
+			Path inputPath = input.toPath();
+			for (File changed : changedFiles) {
+				Path changedPath = changed.toPath();
+				// files added next to an input file might be new inputs
+				if (changedPath.startsWith(inputPath) || inputPath.startsWith(changedPath) || Objects.equals(changedPath.getParent(), inputPath.getParent()))
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Records the modification times of all loaded build files and plugins, and the plugin directories of the projects.<br>
+	 * The configured tasks are only kept for the next build if none of them changed.
+	 */
+	private void recordConfiguration(File buildFile) {
+		this.configuredBuildFile = buildFile;
+		this.configurationFiles = new HashMap<>();
+		if (buildFile != null)
+			this.configurationFiles.put(buildFile, buildFile.lastModified());
+		for (BuildScript buildscript : this.imports.values()) {
+			if (buildscript.buildfileLocation == null) continue;
+			this.configurationFiles.put(buildscript.buildfileLocation, buildscript.buildfileLocation.lastModified());
+			File pluginDir = new File(buildscript.buildfileLocation.getParentFile(), META_PROJECT_PLUGIN_LOCATION);
+			this.configurationFiles.put(pluginDir, pluginDir.lastModified());
+		}
+		for (File pluginFile : this.pluginLoader.getFiles())
+			this.configurationFiles.put(pluginFile, pluginFile.lastModified());
+	}
+	
+	private boolean loadBuild(File buildFile) {
 		if (!preInit()) return false;
 		
 		stateTransition(MetaState.INIT, MetaState.IDLE, MetaState.READY);
 		this.registeredTasks.clear();
+		this.imports.clear();
+		this.importAlias.clear();
+		this.configurationFiles = null;
+		this.changedFiles = null;
 		
 		if (buildFile != null)
 			buildFile = FileUtility.absolute(buildFile, workingDir());
@@ -619,14 +988,18 @@ public final class Metabuild implements IMeta {
 			peekBuild().buildName = "";
 			peekBuild().buildfileLocation = new File(workingDir(), "builtin");
 			peekBuild().init(); // should never fail
-			RootTask.TASK.setBuildscript(peekBuild());
+			this.rootTask.setBuildscript(peekBuild());
 			popBuild();
 			
 		} else {
 
 			try {
+				// compile the build files of the last load together, instead of one after another while importing them
+				this.buildCompiler.precompile(buildFile);
 				importBuild("", this.workingDirectory, buildFile);
+				this.buildCompiler.recordImports(buildFile, this.imports.values().stream().map(b -> b.buildfileLocation).toList());
 			} catch (MetaScriptException e) {
+				recordConfiguration(buildFile);
 				logger().errort(LOG_TAG, "buildfile init phase failed!");
 				e.printStack(logger().errorPrinter(LOG_TAG));
 				stateTransition(MetaState.IDLE, MetaState.INIT);
@@ -639,6 +1012,7 @@ public final class Metabuild implements IMeta {
 			
 		}
 		
+		recordConfiguration(buildFile);
 		stateTransition(MetaState.READY, MetaState.INIT);
 		return true;
 	}
@@ -660,37 +1034,32 @@ public final class Metabuild implements IMeta {
 		return buildscript;
 	}
 	
-	public BuildScript asyncEnterBuild(String name) {
-		synchronized (this.buildstack) {
-			BuildScript buildscript = peekBuild();
-			while (buildscript != null && !buildscript.buildName.equals(name)) {
-				try { this.buildstack.wait(); } catch (InterruptedException e) {}
-			}
-			return pushBuild(name);
-		}
-	}
-	
-	public void asyncLeaveBuild() {
-		synchronized (this.buildstack) {
-			popBuild();
-			this.buildstack.notifyAll();
-		}
-	}
-	
+	/**
+	 * Makes the build script the active one for the calling thread.<br>
+	 * The build stack is local to each thread, tasks running in parallel on the task threads each have their own active build script.
+	 * @param name The import name of the build script
+	 * @return The build script that is now active
+	 */
 	public BuildScript pushBuild(String name) {
 		BuildScript imp = this.imports.get(name);
 		if (imp == null) throw BuildScriptException.msg("attempt to access not imported build: %s", name);
-		this.buildstack.push(imp);
+		this.buildstack.get().push(imp);
 		return imp;
 	}
 	
+	/**
+	 * Restores the build script that was active for the calling thread before the last call to pushBuild().
+	 */
 	public void popBuild() {
-		if (this.buildstack.pop() == null)
+		if (this.buildstack.get().pop() == null)
 			throw BuildScriptException.msg("build stack underflow error!");
 	}
 	
+	/**
+	 * @return The build script active for the calling thread, or null if none is active
+	 */
 	public BuildScript peekBuild() {
-		return this.buildstack.peek();
+		return this.buildstack.get().peek();
 	}
 	
 	public void importBuild(String importName, File location, File buildFile) {
@@ -725,7 +1094,7 @@ public final class Metabuild implements IMeta {
 		buildscript.buildName = importName;
 		buildscript.buildfileLocation = buildFile;
 		this.imports.put(importName, buildscript);
-		if (importName.isEmpty()) RootTask.TASK.setBuildscript(buildscript);
+		if (importName.isEmpty()) this.rootTask.setBuildscript(buildscript);
 		
 		// load project plugins
 		File[] pluginFiles = new File(location, META_PROJECT_PLUGIN_LOCATION).listFiles();
@@ -733,12 +1102,13 @@ public final class Metabuild implements IMeta {
 			logger().infot(LOG_TAG, "load project plugins: %s", location);
 			for (File pluginFile : pluginFiles) {
 				if (!FileUtility.getExtension(pluginFile).equalsIgnoreCase("jar")) continue;
-				if (this.pluginLoader.getFiles().contains(buildFile)) continue;
-				Optional<String> pluginInfo = checkPlugin(pluginFile);
+				if (this.pluginLoader.getFiles().contains(pluginFile)) continue;
+				Optional<PluginIndex.Entry> pluginInfo = checkPlugin(pluginFile);
 				if (pluginInfo.isEmpty()) continue;
-				this.pluginLoader.addFile(pluginFile);
-				logger().infot(LOG_TAG, "- %s %s", pluginFile.getName(), pluginInfo.get());
+				this.pluginLoader.addFile(pluginFile, pluginInfo.get().packages());
+				logger().infot(LOG_TAG, "- %s %s", pluginFile.getName(), pluginInfo.get().info());
 			}
+			savePluginIndex();
 		}
 		
 		// run init on buildfile to register tasks
@@ -752,64 +1122,223 @@ public final class Metabuild implements IMeta {
 	}
 	
 	/**
-	 * Represents an build task and its dependencies that have to be executed
+	 * Frame of the depth first traversal performed by prepareTask(), holds an task and the dependencies not yet visited
 	 */
-	public static record TaskNode(Optional<BuildTask> task, Set<TaskNode> dep) { }
+	private static class PrepareFrame {
+		
+		public final BuildTask task;
+		public final Iterator<String> dependencies;
+		public int[] dependendNodes = new int[4];
+		public int dependendCount = 0;
+		
+		public PrepareFrame(BuildTask task, Set<String> dependencies) {
+			this.task = task;
+			this.dependencies = dependencies == null ? Collections.emptyIterator() : dependencies.iterator();
+		}
+		
+		public void addDependend(int id) {
+			if (this.dependendCount == this.dependendNodes.length)
+				this.dependendNodes = Arrays.copyOf(this.dependendNodes, this.dependendCount * 2);
+			this.dependendNodes[this.dependendCount++] = id;
+		}
+		
+	}
 	
 	/**
 	 * Checks if an task has to be executed and if so, prepares it to be executed.<br>
-	 * Also performs the same operations for all registered dependencies of that task.
+	 * Also performs the same operations for all registered dependencies of that task.<br>
+	 * The dependency graph is walked depth first, every task is visited exactly once per task graph, tasks that have to be executed are added to the task graph builder.
 	 * @param taskName The name of the task to prepare
+	 * @return The id of the task in the task graph or -1 if neither the task nor any of its dependencies have to run
 	 */
-	protected void prepareTask(String taskName, StackList<String> taskTrace) {
+	protected int prepareTask(String taskName) {
 		
-		BuildTask task = taskNamed(taskName.contains(":") ? taskName : ":" + taskName);
-		if (task == null) {
+		BuildTask rootTask = taskNamed(taskName.contains(":") ? taskName : ":" + taskName);
+		if (rootTask == null) {
 			throw BuildScriptException.msg("task '%s' does not exist", taskName);
 		}
+		if (this.taskVisited.contains(rootTask)) return this.taskGraphBuilder.idOf(rootTask);
 		
-		Set<String> dependencies = this.taskDependencies.get(task.fullName());
-		Set<TaskNode> dependendNodes = new HashSet<>();
-		if (dependencies != null) {
-			for (String depTask : dependencies) {
-				try {
-					if (taskTrace.contains(taskName))
-						throw BuildScriptException.msg("recursive task dependency detected: %s", taskTrace.toString());
-					taskTrace.push(taskName);
-					prepareTask(depTask, taskTrace);
-					taskTrace.pop();
-				} catch (MetaScriptException e) {
-					throw BuildScriptException.msg(e, "problem with task '%s' required by '%s'", depTask, taskName);
+		Deque<PrepareFrame> taskTrace = new ArrayDeque<>();
+		Set<BuildTask> tasksOnTrace = new HashSet<>();
+		taskTrace.push(new PrepareFrame(rootTask, this.taskDependencies.get(rootTask.fullName())));
+		tasksOnTrace.add(rootTask);
+		
+		try {
+			
+			while (!taskTrace.isEmpty()) {
+				
+				PrepareFrame frame = taskTrace.peek();
+				
+				// descent into the next dependency not yet visited
+				if (frame.dependencies.hasNext()) {
+					BuildTask depTask = taskNamed(frame.dependencies.next());
+					if (this.taskVisited.contains(depTask)) {
+						int depNode = this.taskGraphBuilder.idOf(depTask);
+						if (depNode >= 0) frame.addDependend(depNode);
+					} else if (tasksOnTrace.contains(depTask)) {
+						StringBuilder trace = new StringBuilder();
+						taskTrace.descendingIterator().forEachRemaining(f -> trace.append(f.task.fullName()).append(" -> "));
+						throw BuildScriptException.msg("recursive task dependency detected: %s", trace.append(depTask.fullName()));
+					} else {
+						taskTrace.push(new PrepareFrame(depTask, this.taskDependencies.get(depTask.fullName())));
+						tasksOnTrace.add(depTask);
+					}
+					continue;
 				}
-				if (this.taskTree != null) dependendNodes.add(this.taskTree);
+				
+				// all dependencies visited, query state of the task itself
+				int node = prepareNode(frame.task, Arrays.copyOf(frame.dependendNodes, frame.dependendCount));
+				taskTrace.pop();
+				tasksOnTrace.remove(frame.task);
+				this.taskVisited.add(frame.task);
+				if (node >= 0 && !taskTrace.isEmpty()) taskTrace.peek().addDependend(node);
+				
 			}
+			
+		} catch (MetaScriptException e) {
+			// wrap exception in the chain of tasks that required the failed task
+			Iterator<PrepareFrame> trace = taskTrace.iterator();
+			BuildTask depTask = trace.next().task;
+			while (trace.hasNext()) {
+				BuildTask task = trace.next().task;
+				e = BuildScriptException.msg(e, "problem with task '%s' required by '%s'", depTask.fullName(), task.fullName());
+				depTask = task;
+			}
+			throw e;
 		}
 		
-		this.taskTree = this.task2node.get(task);
-		if (this.taskTree != null) return;
+		return this.taskGraphBuilder.idOf(rootTask);
+		
+	}
+	
+	/**
+	 * Queries the state of the task and adds it to the task graph if it has to be executed.
+	 * @param task The task to check
+	 * @param dependendNodes The ids of the dependencies of the task which have to be executed
+	 * @return The id of the task in the task graph or -1 if neither the task nor any of its dependencies have to run
+	 */
+	private int prepareNode(BuildTask task, int[] dependendNodes) {
 		
 		pushBuild(task.buildscript().buildName);
 		
 		try {
 			TaskState state = task.state(); // make ABSOLUTELY sure it is called at least once
-			if (!state.requiresBuild() && dependendNodes.isEmpty() && !this.forceRunTasks) {
-				this.taskTree = null;
-				return;
-			}
+			if (!state.requiresBuild() && dependendNodes.length == 0 && !this.forceRunTasks)
+				return -1;
 		} catch (MetaScriptException e) {
 			throw BuildScriptException.msg(e, "failed to query state for task: %s", task.fullName());
 		} finally {
 			popBuild();
 		}
 		
-		this.taskTree = new TaskNode(Optional.of(task), dependendNodes);
-		this.task2node.put(task, this.taskTree);
+		return this.taskGraphBuilder.add(task, dependendNodes);
+		
+	}
+	
+	/**
+	 * Collects all tasks required by the requested tasks, dependencies are listed before the tasks that require them.
+	 * @param tasks The list of tasks requested
+	 * @param taskDeps A map to fill with the dependencies of each collected task
+	 * @return The list of collected tasks or null if an recursive dependency was detected
+	 */
+	private List<BuildTask> collectTasks(List<String> tasks, Map<BuildTask, List<BuildTask>> taskDeps) {
+		
+		List<BuildTask> order = new ArrayList<>();
+		Set<BuildTask> tasksOnTrace = new HashSet<>();
+		Deque<BuildTask> taskTrace = new ArrayDeque<>();
+		Deque<Iterator<String>> depTrace = new ArrayDeque<>();
+		
+		for (String taskName : tasks) {
+			BuildTask rootTask = taskNamed(taskName.contains(":") ? taskName : ":" + taskName);
+			if (taskDeps.containsKey(rootTask)) continue;
+			taskTrace.push(rootTask);
+			depTrace.push(this.taskDependencies.getOrDefault(rootTask.fullName(), Collections.emptySet()).iterator());
+			tasksOnTrace.add(rootTask);
+			taskDeps.put(rootTask, new ArrayList<>());
+			
+			while (!taskTrace.isEmpty()) {
+				if (depTrace.peek().hasNext()) {
+					BuildTask depTask = taskNamed(depTrace.peek().next());
+					if (tasksOnTrace.contains(depTask)) return null;
+					taskDeps.get(taskTrace.peek()).add(depTask);
+					if (taskDeps.containsKey(depTask)) continue;
+					taskTrace.push(depTask);
+					depTrace.push(this.taskDependencies.getOrDefault(depTask.fullName(), Collections.emptySet()).iterator());
+					tasksOnTrace.add(depTask);
+					taskDeps.put(depTask, new ArrayList<>());
+				} else {
+					depTrace.pop();
+					tasksOnTrace.remove(taskTrace.peek());
+					order.add(taskTrace.pop());
+				}
+			}
+		}
+		
+		return order;
+		
+	}
+	
+	/**
+	 * Queries the state of all required tasks in parallel on the task threads.<br>
+	 * An task is only prepared after all of its dependencies have been prepared.<br>
+	 * The states are cached in the tasks, the task graph can then be built without calling prepare again.
+	 * @param tasks The list of tasks requested
+	 */
+	private void prepareParallel(List<String> tasks) {
+		
+		Map<BuildTask, List<BuildTask>> taskDeps = new IdentityHashMap<>();
+		List<BuildTask> order = collectTasks(tasks, taskDeps);
+		if (order == null) return; // recursive dependency, will be reported when building the task graph
+		
+		ThreadPoolExecutor prepareExecutor = new ThreadPoolExecutor(this.taskThreads, this.taskThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		try {
+			Map<BuildTask, CompletableFuture<Void>> prepareFutures = new IdentityHashMap<>();
+			for (BuildTask task : order) {
+				CompletableFuture<?>[] depFutures = taskDeps.get(task).stream().map(prepareFutures::get).toArray(CompletableFuture[]::new);
+				prepareFutures.put(task, CompletableFuture.allOf(depFutures).thenRunAsync(() -> {
+					if (this.doAbort) return;
+					Metabuild previous = enterSession();
+					pushBuild(task.buildscript().buildName);
+					try {
+						task.state();
+					} catch (MetaScriptException e) {
+						throw BuildScriptException.msg(e, "failed to query state for task: %s", task.fullName());
+					} finally {
+						popBuild();
+						leaveSession(previous);
+					}
+				}, prepareExecutor));
+			}
+			CompletableFuture.allOf(prepareFutures.values().toArray(CompletableFuture[]::new)).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof MetaScriptException me) throw me;
+			throw e;
+		} finally {
+			prepareExecutor.shutdown();
+		}
+		
+	}
+	
+	/**
+	 * Prints the time the preparation took for each task visited while building the task graph.
+	 * @param prepareStart The time in milliseconds at which the prepare phase started
+	 */
+	private void printPrepareTimes(long prepareStart) {
+		
+		long taskTime = 0;
+		for (BuildTask task : this.taskVisited) {
+			logger().debugt(LOG_TAG, "prepare %s: %s in %d ms", task.fullName(), task.state(), task.prepareTime());
+			taskTime += task.prepareTime();
+		}
+		
+		logger().infot(LOG_TAG, "PREPARED: %d tasks in %d ms (%d ms task time, %s)", this.taskVisited.size(), System.currentTimeMillis() - prepareStart, taskTime, this.parallelPrepare ? "parallel" : "sequential");
 		
 	}
 	
 	/**
 	 * Checks which tasks are required to complete the requested tasks and prepares them for execution.<br>
-	 * Build a tree of tasks and their dependencies that can then be executed.
+	 * Build a graph of tasks and their dependencies that can then be executed.
 	 * @param tasks The list of tasks to execute.
 	 * @return true if and only if all tasks where prepared for execution successfully.
 	 */
@@ -817,23 +1346,40 @@ public final class Metabuild implements IMeta {
 		
 		try {
 
-			this.task2node.clear();
-			this.taskTree = null;
+			this.taskGraphBuilder = new TaskGraph.Builder();
+			this.taskVisited.clear();
+			this.taskGraph = null;
 			
-			Set<TaskNode> dependencies = new HashSet<>();
+			long prepareStart = System.currentTimeMillis();
+			if (this.parallelPrepare) {
+				try {
+					prepareParallel(tasks);
+				} catch (MetaScriptException e) {
+					logger().errort(LOG_TAG, "failed to prepare tasks in parallel:");
+					e.printStack(logger().errorPrinter(LOG_TAG));
+					return false;
+				}
+				if (this.doAbort) return true; // abort is handled by the caller, no need to build the graph
+			}
+			
+			int[] dependencies = new int[tasks.size()];
+			int dependencyCount = 0;
 			
 			for (String task : tasks) {
+				int node;
 				try {
-					prepareTask(task, new StackList<String>());
+					node = prepareTask(task);
 				} catch (MetaScriptException e) {
 					logger().errort(LOG_TAG, "failed to build task tree for task: %s", task);
 					e.printStack(logger().errorPrinter(LOG_TAG));
 					return false;
 				}
-				if (this.taskTree != null) dependencies.add(this.taskTree);
+				if (node >= 0) dependencies[dependencyCount++] = node;
 			}
 			
-			this.taskTree = new TaskNode(Optional.of(RootTask.TASK), dependencies);
+			this.taskGraphBuilder.add(this.rootTask, Arrays.copyOf(dependencies, dependencyCount));
+			this.taskGraph = this.taskGraphBuilder.build();
+			printPrepareTimes(prepareStart);
 			return true;
 			
 		} catch (MetaScriptException e) {
@@ -845,52 +1391,241 @@ public final class Metabuild implements IMeta {
 			logger().errort(LOG_TAG, "uncatched exception while building task tree:", e);
 			stateTransition(MetaState.READY, MetaState.PREPARE);
 			return false;
+		} finally {
+			this.taskGraphBuilder = null;
+			this.taskVisited.clear();
 		}
 	}
 	
 	@Override
 	public void abortTasks() {
 		this.doAbort = true;
-		if (this.taskExecutor == null) return;
-		synchronized (this.taskExecutor) {
-			this.taskExecutor.notifyAll();
+		// might be called from an other thread while the build shuts down its executor
+		ExecutorService executor = this.taskExecutor;
+		if (executor == null) return;
+		synchronized (executor) {
+			executor.notifyAll();
+		}
+	}
+	
+	/**
+	 * Estimates the length of the longest path from each task to the end of the build, based on the run times of previous builds.<br>
+	 * Tasks that never did run before are estimated with the average of the known tasks.
+	 */
+	private void computeTaskPriorities() {
+		
+		if (this.taskDurations == null) {
+			this.taskDurations = new TaskDurations(new File(cacheDir(), "taskdurations.txt"));
+			if (!this.taskDurations.load())
+				logger().warnt(LOG_TAG, "could not load task durations, scheduling tasks without history");
+		}
+		
+		int rootNode = this.taskGraph.size() - 1;
+		long[] estimates = new long[this.taskGraph.size()];
+		long knownTotal = 0;
+		int knownCount = 0;
+		for (int id = 0; id < rootNode; id++) {
+			estimates[id] = this.taskDurations.estimate(this.taskGraph.task(id));
+			if (estimates[id] >= 0) {
+				knownTotal += estimates[id];
+				knownCount++;
+			}
+		}
+		long unknownEstimate = knownCount > 0 ? knownTotal / knownCount : 0;
+		
+		// dependents always have higher ids, so iterating backwards visits them first
+		this.taskPriority = new long[this.taskGraph.size()];
+		for (int id = rootNode - 1; id >= 0; id--) {
+			long remaining = 0;
+			for (int dependent : this.taskGraph.dependents(id))
+				remaining = Math.max(remaining, this.taskPriority[dependent]);
+			this.taskPriority[id] = (estimates[id] >= 0 ? estimates[id] : unknownEstimate) + remaining;
+		}
+		
+	}
+	
+	/**
+	 * Stores the run times of all tasks that did run in this build, to improve the scheduling of the next builds.
+	 */
+	private void recordTaskDurations() {
+		
+		int rootNode = this.taskGraph.size() - 1;
+		for (int id = 0; id < rootNode; id++) {
+			BuildTask task = this.taskGraph.task(id);
+			if (task.runTime() >= 0) this.taskDurations.record(task, task.runTime());
+		}
+		if (!this.taskDurations.save())
+			logger().warnt(LOG_TAG, "could not save task durations to cache directory");
+		
+	}
+	
+	/**
+	 * Prints the chain of tasks which took the longest time to complete, compared to the total run time of the build.
+	 * @param runTime The total run time of the build in nanoseconds
+	 */
+	private void printCriticalPath(long runTime) {
+		
+		int rootNode = this.taskGraph.size() - 1;
+		long[] pathTime = new long[this.taskGraph.size()];
+		int[] pathPrev = new int[this.taskGraph.size()];
+		for (int id = 0; id <= rootNode; id++) {
+			pathPrev[id] = -1;
+			for (int dep : this.taskGraph.dependencies(id)) {
+				if (pathTime[dep] > pathTime[id]) {
+					pathTime[id] = pathTime[dep];
+					pathPrev[id] = dep;
+				}
+			}
+			pathTime[id] += this.taskTimes[id];
 		}
+		
+		List<String> path = new ArrayList<>();
+		for (int id = pathPrev[rootNode]; id >= 0; id = pathPrev[id])
+			path.add(0, String.format("%s (%d ms)", this.taskGraph.task(id).fullName(), TimeUnit.NANOSECONDS.toMillis(this.taskTimes[id])));
+		if (path.isEmpty()) return;
+		
+		logger().infot(LOG_TAG, "CRITICAL PATH: %d ms of %d ms total", TimeUnit.NANOSECONDS.toMillis(pathTime[rootNode]), TimeUnit.NANOSECONDS.toMillis(runTime));
+		logger().infot(LOG_TAG, "critical path: %s", String.join(" -> ", path));
+		
 	}
 	
 	/**
-	 * Executes the prepared task tree, from the specified node upwards.
-	 * @param node The node in the task tree to run
-	 * @return true if and only if all the tasks from the node upward have completed successfully
+	 * @return true if the tasks of the current build run on virtual threads instead of the task threads
 	 */
-	private CompletableFuture<Void> runTaskTree(TaskNode node, Map<TaskNode, CompletableFuture<Void>> taskFutures) {
-		
-		return CompletableFuture.allOf(
-			node.dep().stream().map(task -> {
-				CompletableFuture<Void> future = taskFutures.get(task);
-				if (future == null)
-					taskFutures.put(task, (future = runTaskTree(task, taskFutures)));
-				return future;
-			}).toArray(CompletableFuture[]::new)
-		).thenRunAsync(() -> {
+	private boolean runsOnVirtualThreads() {
+		return this.taskExecutor != null && this.taskQueue == null;
+	}
+	
+	/**
+	 * Checks if enough resources are left in the pools to run the task.<br>
+	 * An task claiming more than an pool can provide at all is allowed to run if no other task is running, to not block the build forever.
+	 * @return true if the task can be started now
+	 */
+	private boolean resourcesAvailable(BuildTask task) {
+		if (this.tasksRunning == 0) return true;
+		for (TaskResource resource : TaskResource.values()) {
+			long limit = getResourceLimit(resource);
+			long demand = task.demand(resource);
+			if (limit >= 0 && demand > 0 && this.resourcesUsed.getOrDefault(resource, 0L) + demand > limit) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Claims or releases the resources of the task, has to be called while holding the executor lock.
+	 * @param sign 1 to claim the resources, -1 to release them
+	 */
+	private void claimResources(BuildTask task, int sign) {
+		for (TaskResource resource : TaskResource.values())
+			this.resourcesUsed.merge(resource, sign * task.demand(resource), Long::sum);
+	}
+	
+	/**
+	 * Submits ready tasks to the executor until all task threads are busy, has to be called while holding the executor lock.<br>
+	 * Tasks are submitted in order of their longest remaining path, so long chains of tasks are started first.
+	 * If the resources for the next task are not available, tasks with less demands are started in the meantime.
+	 */
+	private void dispatchTasks() {
+		List<Integer> waiting = new ArrayList<>();
+		while ((runsOnVirtualThreads() || this.tasksRunning < this.taskThreads) && !this.taskReady.isEmpty()) {
+			int id = this.taskReady.poll();
+			BuildTask task = this.taskGraph.task(id);
+			if (!resourcesAvailable(task)) {
+				waiting.add(id);
+				continue;
+			}
+			claimResources(task, 1);
+			this.tasksRunning++;
+			this.taskExecutor.execute(() -> runGraphTask(id));
+		}
+		this.taskReady.addAll(waiting);
+	}
+	
+	/**
+	 * Runs the task from the task graph and dispatches all dependent tasks which became ready after this task completed.
+	 * @param id The id of the task in the task graph
+	 */
+	private void runGraphTask(int id) {
+		
+		BuildTask task = this.taskGraph.task(id);
+		Throwable failure = null;
+		long start = System.nanoTime();
+		Metabuild previous = enterSession();
+		try {
 			if (this.doAbort) return; // do not start any more tasks, we are aborting the build
-			if (node.task().isEmpty()) return;
-			asyncEnterBuild(node.task().get().buildscript().buildName);
+			pushBuild(task.buildscript().buildName);
 			try {
-				if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskStarted(node.task().get().fullName()));
-				boolean result = node.task().get().runTask(
-						status -> statusCallback.forEach(s -> s.taskStatus(node.task().get().fullName(), status)));
+				if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskStarted(task.fullName()));
+				boolean result = task.runTask(
+						status -> statusCallback.forEach(s -> s.taskStatus(task.fullName(), status)));
 				if (this.doAbort) return; // do not further check results, the task was aborted
-				if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskCompleted(node.task().get().fullName()));
+				if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskCompleted(task.fullName()));
 				if (!result) {
-					throw BuildException.msg("task '%s' failed!", node.task().get().fullName());
+					throw BuildException.msg("task '%s' failed!", task.fullName());
 				}
 			} finally {
-				asyncLeaveBuild();
+				popBuild();
 			}
-		}, this.taskExecutor);
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			this.taskTimes[id] = System.nanoTime() - start;
+			completeTask(id, failure);
+			leaveSession(previous);
+		}
 		
 	}
 	
+	/**
+	 * Updates the dependency counters of all tasks depending on the completed one, and dispatches the ones that became ready.<br>
+	 * If the completed task did run, its dependents are notified to repeat their preparation.<br>
+	 * The dependents of an failed task are never dispatched and marked as incomplete.<br>
+	 * Unless keep going is enabled, no more tasks are dispatched after the first failure.
+	 * @param id The id of the completed task in the task graph
+	 * @param failure The exception thrown by the task, or null if it completed successfully
+	 */
+	private void completeTask(int id, Throwable failure) {
+		synchronized (this.taskExecutor) {
+			this.tasksRunning--;
+			claimResources(this.taskGraph.task(id), -1);
+			if (failure != null) {
+				this.taskFailures.put(id, failure);
+				markIncomplete(id);
+			}
+			boolean stopped = this.doAbort || (!this.keepGoing && !this.taskFailures.isEmpty());
+			if (failure == null && !stopped) {
+				boolean changedOutputs = this.taskGraph.task(id).changedOutputs();
+				for (int dependent : this.taskGraph.dependents(id)) {
+					if (changedOutputs) this.taskGraph.task(dependent).changedDependency();
+					if (--this.taskPending[dependent] == 0) this.taskReady.add(dependent);
+				}
+			}
+			if (stopped) this.taskReady.clear();
+			dispatchTasks();
+			this.taskExecutor.notifyAll();
+		}
+	}
+	
+	/**
+	 * Marks all tasks depending (transitively) on the failed task as incomplete, has to be called while holding the executor lock.
+	 * @param id The id of the failed task in the task graph
+	 */
+	private void markIncomplete(int id) {
+		int rootNode = this.taskGraph.size() - 1;
+		Deque<Integer> dependents = new ArrayDeque<>();
+		dependents.push(id);
+		while (!dependents.isEmpty()) {
+			for (int dependent : this.taskGraph.dependents(dependents.pop())) {
+				// the pending counter of an incomplete task is set to -1, so it is only visited once
+				if (dependent == rootNode || this.taskPending[dependent] < 0) continue;
+				this.taskPending[dependent] = -1;
+				this.taskGraph.task(dependent).failedDependency();
+				this.tasksIncomplete++;
+				dependents.push(dependent);
+			}
+		}
+	}
+	
 	@Override
 	public boolean runTasks(String... tasks) {
 		return runTasks(Arrays.asList(tasks));
@@ -913,12 +1648,49 @@ public final class Metabuild implements IMeta {
 		
 		logger().infot(LOG_TAG, "TASKS: %d  UP_TO_DATE: %s  FAILED: %d", taskCount, upToDate, failed);
 		
+		BuildCache cache = buildCache();
+		String cacheStatistics = cache == null ? null : cache.statistics();
+		if (cacheStatistics != null)
+			logger().infot(LOG_TAG, "BUILD CACHE: %s", cacheStatistics);
+		
 	}
 	
 	@Override
 	public boolean runTasks(List<String> tasks) {
+		Metabuild previous = enterSession();
+		try {
+			return runBuild(tasks);
+		} finally {
+			// the build can end early on an abort or error, the executor must not be reused by the next build
+			shutdownTaskExecutor();
+			writeBuildTrace();
+			leaveSession(previous);
+		}
+	}
+	
+	/**
+	 * Stops the task executor of the last build, if it is still present.
+	 */
+	private void shutdownTaskExecutor() {
+		if (this.taskExecutor == null) return;
+		try {
+			if (!this.taskExecutor.shutdownNow().isEmpty()) {
+				logger().warnt(LOG_TAG, "tasks still runing after build, this indicates sirious problems with the build file!");
+				logger().warnt(LOG_TAG, "attempt force termination of remaining tasks ...");
+			}
+			if (!this.taskExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger().warnt(LOG_TAG, "failed to shutdown build tasks, executor not responding!");
+			}
+		} catch (InterruptedException e) {}
+		if (this.taskQueue != null) this.taskQueue.clear();
+		this.taskExecutor = null;
+		this.taskQueue = null;
+	}
+	
+	private boolean runBuild(List<String> tasks) {
 		
 		this.doAbort = false;
+		if (buildCache() != null) buildCache().resetStatistics();
 		
 		/* Prepare tasks for execution, check which ones have to run and build the task tree to execut
 		 * The actual code that runs in the prepare phase usualy does not take very long to cmoplete
@@ -941,7 +1713,7 @@ public final class Metabuild implements IMeta {
 			return false;
 		}
 		
-		if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskCount(this.task2node.size()));
+		if (this.statusCallback != null) this.statusCallback.forEach(s -> s.taskCount(this.taskGraph.size() - 1));
 		
 		/* Actually run the tasks (uncles this phase is requested to be skipped)
 		 * This might take some very long time depending on the amount of work to complete.
@@ -955,25 +1727,48 @@ public final class Metabuild implements IMeta {
 		boolean success = false;
 		if (!this.skipTaskRun) {
 			
-			if (this.taskTree.dep().stream().filter(n -> n.task().isPresent()).count() == 0) {
+			int rootNode = this.taskGraph.size() - 1;
+			if (this.taskGraph.dependencies(rootNode).length == 0) {
 				logger().infot(LOG_TAG, "nothing to do");
 				success = true;
 			}
 			
-			this.taskQueue = new ArrayBlockingQueue<>(this.registeredTasks.size());
-			this.taskExecutor = new ThreadPoolExecutor(0, this.taskThreads, 10, TimeUnit.SECONDS, this.taskQueue);
+			// each build gets its own executor, the thread count and mode might have changed since the last one
+			shutdownTaskExecutor();
+			if (this.virtualThreads) {
+				this.taskExecutor = VirtualThreads.newThreadPerTaskExecutor("MetaTask");
+				if (this.taskExecutor == null)
+					logger().warnt(LOG_TAG, "virtual threads are not supported by this java runtime, using task threads");
+			}
+			if (this.taskExecutor == null) {
+				this.taskQueue = new LinkedBlockingQueue<>();
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(this.taskThreads, this.taskThreads, 10, TimeUnit.SECONDS, this.taskQueue);
+				executor.allowCoreThreadTimeOut(true);
+				this.taskExecutor = executor;
+			}
 			
-			try {
-				stateTransition(MetaState.RUN, MetaState.PREPARE);
-				CompletableFuture<Void> buildTask = runTaskTree(this.taskTree, new HashMap<Metabuild.TaskNode, CompletableFuture<Void>>());
+			computeTaskPriorities();
+			
+			stateTransition(MetaState.RUN, MetaState.PREPARE);
+			long runStart = System.nanoTime();
+			synchronized (this.taskExecutor) {
+				
+				this.taskPending = this.taskGraph.inDegrees();
+				this.taskTimes = new long[this.taskGraph.size()];
+				this.taskReady = new PriorityQueue<>((a, b) -> this.taskPriority[a] != this.taskPriority[b] ? Long.compare(this.taskPriority[b], this.taskPriority[a]) : Integer.compare(a, b));
+				this.tasksRunning = 0;
+				this.resourcesUsed.clear();
+				this.taskFailures.clear();
+				this.tasksIncomplete = 0;
+				for (int id = 0; id < this.taskGraph.size(); id++)
+					if (this.taskPending[id] == 0) this.taskReady.add(id);
+				dispatchTasks();
 				
-				// wait for completition
-				while (!buildTask.isDone()) {
+				// wait for completition, completed tasks and abort requests notify the executor
+				while (this.tasksRunning > 0) {
 					
 					try {
-						synchronized (this.taskExecutor) {
-							this.taskExecutor.wait(1000);
-						}
+						if (!this.doAbort) this.taskExecutor.wait();
 					} catch (InterruptedException e1) {
 						stateTransition(MetaState.ERROR);
 						return false;
@@ -982,46 +1777,56 @@ public final class Metabuild implements IMeta {
 					if (this.doAbort) {
 						logger().warnt(LOG_TAG, "ABORT OF ALL TASKS REQUESTED");
 						// notify all running tasks to terminate as soon as possible
-						Queue<TaskNode> toNotify = new ArrayDeque<Metabuild.TaskNode>();
-						toNotify.add(this.taskTree);
-						while (toNotify.size() > 0) {
-							TaskNode task = toNotify.poll();
-							toNotify.addAll(task.dep());
-							if (task.task().isPresent())
-								task.task().get().abortTask();
-						}
+						for (int id = 0; id < this.taskGraph.size(); id++)
+							this.taskGraph.task(id).abortTask();
 						// await task termination
+						long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ABORT_TIMEOUT_SECONDS);
 						try {
-							buildTask.orTimeout(ABORT_TIMEOUT_SECONDS, TimeUnit.SECONDS).join();
-						} catch (CompletionException e) {
-							if (e.getCause() instanceof TimeoutException) {
-								// timeout, tasks stuck in running state and not responding
-								logger().errort(LOG_TAG, "tasks did not react to abort request, force terminating ...");
-
-								// abort execution of any more tasks, the task tree will not be able to finish normally any more
-								this.taskExecutor.shutdownNow();
-								// enter error state, further executions are not possible, system has to be terminated
-								stateTransition(MetaState.ERROR);
-								return false;
-							}
-							throw e;
+							while (this.tasksRunning > 0 && System.currentTimeMillis() < timeout)
+								this.taskExecutor.wait(Math.max(1, timeout - System.currentTimeMillis()));
+						} catch (InterruptedException e1) {
+							stateTransition(MetaState.ERROR);
+							return false;
+						}
+						if (this.tasksRunning > 0) {
+							// timeout, tasks stuck in running state and not responding
+							logger().errort(LOG_TAG, "tasks did not react to abort request, force terminating ...");
+							
+							// abort execution of any more tasks, the task graph will not be able to finish normally any more
+							this.taskExecutor.shutdownNow();
+							// enter error state, further executions are not possible, system has to be terminated
+							stateTransition(MetaState.ERROR);
+							return false;
 						}
 					}
 					
 				}
-				buildTask.join();
 				
-				success = !this.doAbort;
-			} catch (CompletionException e)  {
-				if (e.getCause() instanceof MetaScriptException me) {
+			}
+			
+			recordTaskDurations();
+			if (!this.doAbort) printCriticalPath(System.nanoTime() - runStart);
+			
+			Throwable uncatched = null;
+			for (var failure : this.taskFailures.entrySet()) {
+				if (failure.getValue() instanceof MetaScriptException me) {
 					logger().errort(LOG_TAG, "build task error:");
 					me.printStack(logger().errorPrinter(LOG_TAG));
 				} else {
-					logger().errort(LOG_TAG, "uncatched build task error:", e.getCause());
-					stateTransition(MetaState.ERROR);
-					return false;
+					logger().errort(LOG_TAG, "uncatched build task error:", failure.getValue());
+					uncatched = failure.getValue();
 				}
 			}
+			if (!this.taskFailures.isEmpty()) {
+				logger().errort(LOG_TAG, "FAILED: %d tasks  INCOMPLETE: %d tasks", this.taskFailures.size(), this.tasksIncomplete);
+				for (int id : this.taskFailures.keySet())
+					logger().errort(LOG_TAG, "failed task: %s", this.taskGraph.task(id).fullName());
+			}
+			if (uncatched != null) {
+				stateTransition(MetaState.ERROR);
+				return false;
+			}
+			success = !this.doAbort && this.taskFailures.isEmpty();
 			
 		} else {
 			logger().infot(LOG_TAG, "skipping build run phase");
@@ -1066,21 +1871,10 @@ public final class Metabuild implements IMeta {
 		 */
 		
 		this.registeredTasks.values().forEach(BuildTask::cleanupTask);
-	 
-		try {
-			if (this.taskExecutor != null) {
-				if (!this.taskExecutor.shutdownNow().isEmpty()) {
-					logger().warnt(LOG_TAG, "tasks still runing after build, this indicates sirious problems with the build file!");
-					logger().warnt(LOG_TAG, "attempt force termination of remaining tasks ...");
-				}
-				if (!this.taskExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-					logger().warnt(LOG_TAG, "failed to shutdown build tasks, executor not responding!");
-				}
-				this.taskQueue.clear();
-				this.taskExecutor = null;
-				this.taskQueue = null;
-			}
-		} catch (InterruptedException e) {}
+		shutdownTaskExecutor();
+		
+		if (buildCache() != null && !buildCache().awaitUploads())
+			logger().warnt(LOG_TAG, "uploads to the remote build cache did not complete in time");
 		
 		stateTransition(MetaState.READY, MetaState.SHUTDOWN);
 		printStatus();
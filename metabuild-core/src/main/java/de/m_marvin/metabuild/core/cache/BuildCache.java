@@ -0,0 +1,360 @@
+package de.m_marvin.metabuild.core.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.simplelogging.api.Logger;
+
+/**
+ * Content addressed cache for the outputs of build tasks, stored in the cache directory.<br>
+ * The outputs of an task are stored as one bundle, keyed by an hash of the task inputs, properties and implementation.
+ * If an task with the same key runs again, for example after switching back to an previous commit, the outputs are restored instead of running the task.<br>
+ * The size of the cache is bounded, the least recently used bundles are removed first.<br>
+ * Optionally an remote cache is used behind the local one, bundles missing locally are downloaded from it and new bundles can be uploaded to it.
+ */
+public class BuildCache {
+
+	public static final String CACHE_DIRECTORY = "buildcache";
+	public static final String BUNDLE_EXTENSION = ".zip";
+	public static final String LOG_TAG = "BuildCache";
+	public static final long UPLOAD_TIMEOUT_SECONDS = 120;
+
+	private final File directory;
+	private final long maxSize;
+	/* Bundles are read under the read lock, stored and evicted under the write lock */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/* Total size of all bundles, -1 if not yet determined */
+	private long size = -1;
+	private final Logger logger;
+	/* The remote cache and if new bundles are uploaded to it, remote can be null */
+	private final RemoteBuildCache remote;
+	private final boolean push;
+	/* Downloads and uploads from and to the remote cache which are not yet completed, by key, downloads of bundles missing in the remote cache are kept until the next build */
+	private final Map<String, CompletableFuture<Boolean>> downloads = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<Long>> uploads = new ConcurrentHashMap<>();
+	/* Statistics of the current build */
+	private final LongAdder localHits = new LongAdder();
+	private final LongAdder remoteHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder bytesDownloaded = new LongAdder();
+	private final LongAdder bytesUploaded = new LongAdder();
+	private final LongAdder transferErrors = new LongAdder();
+
+	/**
+	 * @param directory The directory to store the bundles in
+	 * @param maxSize The max. total size of all bundles in bytes
+	 * @param remote The remote cache to use behind this cache, or null
+	 * @param push If new bundles should be uploaded to the remote cache
+	 * @param logger The logger to report failed transfers to
+	 */
+	public BuildCache(File directory, long maxSize, RemoteBuildCache remote, boolean push, Logger logger) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.remote = remote;
+		this.push = push;
+		this.logger = logger;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The file the bundle with the key is stored in
+	 */
+	public File bundleFile(String key) {
+		return new File(this.directory, key + BUNDLE_EXTENSION);
+	}
+
+	/**
+	 * @return true if an bundle with the key exists in this cache
+	 */
+	public boolean contains(String key) {
+		return bundleFile(key).isFile();
+	}
+
+	/**
+	 * Starts to download the bundle with the key from the remote cache, if it is not available locally.<br>
+	 * Should be called as soon as the key of an task is known, so the download overlaps with the execution of other tasks.
+	 * @param key The cache key
+	 */
+	public void prefetch(String key) {
+		if (this.remote == null || contains(key)) return;
+		CompletableFuture<Boolean> download = new CompletableFuture<>();
+		if (this.downloads.putIfAbsent(key, download) != null) return;
+		try {
+			if (!this.directory.isDirectory()) this.directory.mkdirs();
+			File tempFile = File.createTempFile(key, ".tmp", this.directory);
+			this.remote.download(key, tempFile).whenComplete((length, e) -> {
+				boolean adopted = false;
+				if (e != null) {
+					this.transferErrors.increment();
+					this.logger.warnt(LOG_TAG, "could not download from remote build cache: %s - %s", key, e.getMessage());
+				} else if (length >= 0) {
+					this.bytesDownloaded.add(length);
+					adopted = adopt(key, tempFile);
+				}
+				if (!adopted) tempFile.delete();
+				// only bundles missing in the remote cache are remembered until the next build, failed transfers are tried again
+				if (e != null || length >= 0) this.downloads.remove(key, download);
+				download.complete(adopted);
+			});
+		} catch (IOException e) {
+			this.logger.warnt(LOG_TAG, "could not download from remote build cache: %s - %s", key, e.getMessage());
+			this.downloads.remove(key, download);
+			download.complete(false);
+		}
+	}
+
+	/**
+	 * Moves an downloaded bundle into this cache.
+	 * @return true if the bundle was moved into the cache
+	 */
+	private boolean adopt(String key, File tempFile) {
+		this.lock.writeLock().lock();
+		try {
+			File bundle = bundleFile(key);
+			if (bundle.isFile()) return true;
+			if (!tempFile.renameTo(bundle)) return false;
+			if (this.size >= 0) this.size += bundle.length();
+			evict(bundle);
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Waits for the download of the bundle, if it is currently downloaded from the remote cache.
+	 * @return true if the bundle was downloaded from the remote cache
+	 */
+	private boolean awaitDownload(String key) {
+		prefetch(key);
+		CompletableFuture<Boolean> download = this.downloads.get(key);
+		if (download == null) return contains(key);
+		try {
+			return download.get();
+		} catch (InterruptedException | ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Restores the outputs from the bundle with the key.<br>
+	 * All files currently in the outputs are removed before the bundle is extracted, so the outputs match the cached state exactly.
+	 * @param key The cache key
+	 * @param base The absolute directory the entries of the bundle are relative to
+	 * @param outputs The absolute output files and directories, entries of the bundle outside of them are rejected
+	 * @return true if the outputs were restored, false if the bundle does not exist or could not be extracted
+	 * @throws IOException if the outputs could not be restored after the old files were already removed
+	 */
+	public boolean load(String key, File base, Collection<File> outputs) throws IOException {
+		this.lock.readLock().lock();
+		try {
+			File bundle = bundleFile(key);
+			boolean local = bundle.isFile();
+			if (!local) {
+				// the download needs the write lock to move the bundle into the cache
+				this.lock.readLock().unlock();
+				try {
+					awaitDownload(key);
+				} finally {
+					this.lock.readLock().lock();
+				}
+			}
+			if (!bundle.isFile()) {
+				this.misses.increment();
+				return false;
+			}
+			try (ZipFile zip = new ZipFile(bundle)) {
+
+				// validate all entries before touching the outputs
+				List<ZipEntry> entries = new ArrayList<>();
+				for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+					ZipEntry entry = e.nextElement();
+					if (entry.isDirectory()) continue;
+					File file = entryFile(entry.getName(), base);
+					if (outputs.stream().noneMatch(o -> file.toPath().startsWith(o.toPath()))) {
+						this.logger.warnt(LOG_TAG, "build cache bundle contains entry outside of the outputs: %s - %s", key, entry.getName());
+						this.misses.increment();
+						return false;
+					}
+					entries.add(entry);
+				}
+
+				for (File file : FileUtility.deepList(outputs)) {
+					if (!file.delete()) throw new IOException("unable to remove output file: " + file);
+				}
+				for (ZipEntry entry : entries) {
+					File file = entryFile(entry.getName(), base);
+					if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+						throw new IOException("unable to create output directory: " + file.getParentFile());
+					try (InputStream in = zip.getInputStream(entry); OutputStream out = new FileOutputStream(file)) {
+						in.transferTo(out);
+					}
+				}
+
+			}
+			// mark as recently used
+			bundle.setLastModified(System.currentTimeMillis());
+			(local ? this.localHits : this.remoteHits).increment();
+			return true;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores the outputs as bundle with the key, the least recently used bundles are removed if the cache exceeds its size limit.<br>
+	 * If enabled, the bundle is uploaded to the remote cache in the background.
+	 * @param key The cache key
+	 * @param base The absolute directory the entries of the bundle are relative to
+	 * @param outputs The absolute output files and directories to store
+	 * @throws IOException if the bundle could not be written
+	 */
+	public void store(String key, File base, Collection<File> outputs) throws IOException {
+		if (!this.directory.isDirectory() && !this.directory.mkdirs())
+			throw new IOException("unable to create build cache directory: " + this.directory);
+		File bundle = bundleFile(key);
+		File tempFile = File.createTempFile(key, ".tmp", this.directory);
+		try {
+			try (ZipOutputStream zstream = new ZipOutputStream(new FileOutputStream(tempFile))) {
+				for (File file : FileUtility.deepList(outputs)) {
+					zstream.putNextEntry(new ZipEntry(entryName(file, base)));
+					try (InputStream in = new FileInputStream(file)) {
+						in.transferTo(zstream);
+					}
+					zstream.closeEntry();
+				}
+			}
+			this.lock.writeLock().lock();
+			try {
+				long replaced = bundle.length();
+				if (!bundle.delete() && bundle.exists() || !tempFile.renameTo(bundle))
+					throw new IOException("unable to replace build cache bundle: " + bundle);
+				if (this.size >= 0) this.size += bundle.length() - replaced;
+				evict(bundle);
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		} finally {
+			tempFile.delete();
+		}
+		if (this.remote != null && this.push) upload(key, bundle);
+	}
+
+	private void upload(String key, File bundle) {
+		CompletableFuture<Long> upload = this.remote.upload(key, bundle).whenComplete((length, e) -> {
+			if (e != null) {
+				this.transferErrors.increment();
+				this.logger.warnt(LOG_TAG, "could not upload to remote build cache: %s - %s", key, e.getMessage());
+			} else {
+				this.bytesUploaded.add(length);
+			}
+		});
+		this.uploads.put(key, upload);
+		upload.whenComplete((length, e) -> this.uploads.remove(key, upload));
+	}
+
+	/**
+	 * Waits for all uploads to the remote cache to complete, should be called at the end of the build.
+	 * @return false if the uploads did not complete in time
+	 */
+	public boolean awaitUploads() {
+		try {
+			CompletableFuture.allOf(this.uploads.values().toArray(CompletableFuture[]::new)).get(UPLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			return true;
+		} catch (ExecutionException e) {
+			return true; // failed uploads are already reported
+		} catch (InterruptedException | TimeoutException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Resets the hit, miss and transfer statistics and forgets the bundles missing in the remote cache, should be called at the start of an build.
+	 */
+	public void resetStatistics() {
+		this.downloads.clear();
+		this.localHits.reset();
+		this.remoteHits.reset();
+		this.misses.reset();
+		this.bytesDownloaded.reset();
+		this.bytesUploaded.reset();
+		this.transferErrors.reset();
+	}
+
+	/**
+	 * @return An summary of the hit, miss and transfer statistics since the last reset, or null if the cache was not used
+	 */
+	public String statistics() {
+		long hits = this.localHits.sum() + this.remoteHits.sum();
+		if (hits == 0 && this.misses.sum() == 0 && this.bytesUploaded.sum() == 0) return null;
+		if (this.remote == null)
+			return String.format("HITS: %d  MISSES: %d", hits, this.misses.sum());
+		return String.format("HITS: %d (%d remote)  MISSES: %d  DOWNLOADED: %d KB  UPLOADED: %d KB  TRANSFER ERRORS: %d",
+				hits, this.remoteHits.sum(), this.misses.sum(), this.bytesDownloaded.sum() / 1024, this.bytesUploaded.sum() / 1024, this.transferErrors.sum());
+	}
+
+	/**
+	 * Stops the transfers to and from the remote cache.
+	 */
+	public void close() {
+		if (this.remote != null) this.remote.close();
+	}
+
+	/**
+	 * Removes the least recently used bundles until the cache is within its size limit, must be called under the write lock.
+	 * @param keep The bundle which was just added and should not be removed
+	 */
+	private void evict(File keep) {
+		File[] bundles = this.directory.listFiles(f -> f.isFile() && f.getName().endsWith(BUNDLE_EXTENSION));
+		if (bundles == null) return;
+		if (this.size < 0) this.size = Arrays.stream(bundles).mapToLong(File::length).sum();
+		if (this.size <= this.maxSize) return;
+		Arrays.sort(bundles, Comparator.comparing(f -> FileUtility.timestamp(f).orElse(FileTime.fromMillis(0))));
+		for (File bundle : bundles) {
+			if (this.size <= this.maxSize) break;
+			if (bundle.equals(keep)) continue;
+			long length = bundle.length();
+			if (bundle.delete()) this.size -= length;
+		}
+	}
+
+	/**
+	 * @return The name of the bundle entry for the file, relative to the base directory if possible
+	 */
+	private static String entryName(File file, File base) {
+		if (file.toPath().startsWith(base.toPath())) return FileUtility.relative(file, base).getPath().replace('\\', '/');
+		return file.getAbsolutePath().replace('\\', '/');
+	}
+
+	private static File entryFile(String name, File base) {
+		return FileUtility.absolute(new File(name), base);
+	}
+
+}
@@ -0,0 +1,126 @@
+package de.m_marvin.metabuild.core.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.m_marvin.metabuild.core.util.VirtualThreads;
+
+/**
+ * Client for an remote build cache server, which stores the output bundles of the build cache by their key.<br>
+ * Bundles are downloaded with GET and uploaded with PUT requests to the base URL followed by the key.
+ * All transfers run asynchronously, so they overlap with the execution of the build tasks.<br>
+ * If the environment variable METABUILD_CACHE_TOKEN is set, it is send as bearer token with each request.
+ */
+public class RemoteBuildCache {
+
+	public static final String TOKEN_VARIABLE = "METABUILD_CACHE_TOKEN";
+	public static final int MAX_CONNECTIONS = 8;
+	public static final long CONNECT_TIMEOUT_SECONDS = 10;
+	public static final long READ_TIMEOUT_SECONDS = 60;
+
+	private final URL baseUrl;
+	private final String token;
+	private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONNECTIONS, VirtualThreads.factory("BuildCacheTransfer"));
+
+	/**
+	 * @param baseUrl The URL the keys of the bundles are appended to
+	 * @throws MalformedURLException if the URL is not valid
+	 */
+	public RemoteBuildCache(String baseUrl) throws MalformedURLException {
+		this.baseUrl = new URL(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+		this.token = System.getenv(TOKEN_VARIABLE);
+	}
+
+	public URL getBaseUrl() {
+		return baseUrl;
+	}
+
+	private HttpURLConnection openConnection(String key, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl, key + BuildCache.BUNDLE_EXTENSION).openConnection();
+		connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(CONNECT_TIMEOUT_SECONDS));
+		connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(READ_TIMEOUT_SECONDS));
+		connection.setRequestMethod(method);
+		if (this.token != null)
+			connection.setRequestProperty("Authorization", "Bearer " + this.token);
+		return connection;
+	}
+
+	/**
+	 * Downloads the bundle with the key.
+	 * @param key The cache key
+	 * @param target The file to write the bundle to, it is only created if the bundle exists
+	 * @return An future completing with the number of bytes downloaded, or -1 if the server does not have the bundle
+	 */
+	public CompletableFuture<Long> download(String key, File target) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				HttpURLConnection connection = openConnection(key, "GET");
+				try {
+					int rcode = connection.getResponseCode();
+					if (rcode == HttpURLConnection.HTTP_NOT_FOUND) return -1L;
+					if (rcode != HttpURLConnection.HTTP_OK)
+						throw new IOException(String.format("server responded %d %s", rcode, connection.getResponseMessage()));
+					try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(target)) {
+						return in.transferTo(out);
+					}
+				} finally {
+					connection.disconnect();
+				}
+			} catch (IOException e) {
+				target.delete();
+				throw new UncheckedIOException(e);
+			}
+		}, this.executor);
+	}
+
+	/**
+	 * Uploads the bundle with the key.
+	 * @param key The cache key
+	 * @param source The bundle file to upload
+	 * @return An future completing with the number of bytes uploaded
+	 */
+	public CompletableFuture<Long> upload(String key, File source) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				HttpURLConnection connection = openConnection(key, "PUT");
+				try {
+					connection.setDoOutput(true);
+					connection.setFixedLengthStreamingMode(source.length());
+					connection.setRequestProperty("Content-Type", "application/zip");
+					long length;
+					try (InputStream in = new FileInputStream(source); OutputStream out = connection.getOutputStream()) {
+						length = in.transferTo(out);
+					}
+					int rcode = connection.getResponseCode();
+					if (rcode != HttpURLConnection.HTTP_OK && rcode != HttpURLConnection.HTTP_CREATED && rcode != HttpURLConnection.HTTP_NO_CONTENT)
+						throw new IOException(String.format("server responded %d %s", rcode, connection.getResponseMessage()));
+					return length;
+				} finally {
+					connection.disconnect();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, this.executor);
+	}
+
+	/**
+	 * Stops the transfer threads, pending transfers are cancelled.
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,151 @@
+package de.m_marvin.metabuild.core.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the input files of an build for changes, used by the watch mode to run the build again after changes.<br>
+ * Directories are watched with all their sub directories, single files are watched through their parent directory.
+ * Changes are collected until no further change occurred for the debounce time, so an burst of changes (like saving all files) triggers only one build.
+ */
+public class BuildWatcher implements Closeable {
+
+	public static final long DEBOUNCE_MILLIS = 300;
+
+	private final WatchService watchService;
+	/* The watched directories and their watch keys */
+	private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+	/* Directories watched with their content and single files watched through their parent */
+	private final Set<Path> watchTrees = new HashSet<>();
+	private final Set<Path> watchFiles = new HashSet<>();
+	private final Set<Path> watchFileParents = new HashSet<>();
+
+	public BuildWatcher() throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Replaces the watched files, directories which are no longer required are not watched anymore.
+	 * @param files The files and directories to watch
+	 */
+	public void watch(Collection<File> files) throws IOException {
+
+		this.watchTrees.clear();
+		this.watchFiles.clear();
+		this.watchFileParents.clear();
+		Set<Path> directories = new HashSet<>();
+		for (File file : files) {
+			Path path = file.getAbsoluteFile().toPath();
+			if (Files.isDirectory(path)) {
+				this.watchTrees.add(path);
+				try (Stream<Path> tree = Files.walk(path)) {
+					tree.filter(Files::isDirectory).forEach(directories::add);
+				}
+			} else {
+				// files which do not exist yet are watched too, to detect their creation
+				this.watchFiles.add(path);
+				Path parent = path.getParent();
+				if (parent == null || !Files.isDirectory(parent)) continue;
+				this.watchFileParents.add(parent);
+				directories.add(parent);
+			}
+		}
+
+		this.watchKeys.entrySet().removeIf(entry -> {
+			if (directories.contains(entry.getKey())) return false;
+			entry.getValue().cancel();
+			return true;
+		});
+		for (Path directory : directories)
+			if (!this.watchKeys.containsKey(directory)) register(directory);
+
+	}
+
+	private void register(Path directory) throws IOException {
+		WatchKey key = directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		this.watchKeys.put(directory, key);
+	}
+
+	/**
+	 * @return The number of directories currently watched
+	 */
+	public int watchedDirectories() {
+		return this.watchKeys.size();
+	}
+
+	/**
+	 * Blocks until an watched file changed, and collects further changes until no more changes occur for the debounce time.
+	 * @return The changed files
+	 * @throws InterruptedException If the thread was interrupted while waiting
+	 */
+	public Set<File> awaitChanges() throws InterruptedException {
+
+		Set<File> changes = new LinkedHashSet<>();
+		try {
+			while (changes.isEmpty()) {
+				collect(this.watchService.take(), changes);
+			}
+			WatchKey key;
+			while ((key = this.watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+				collect(key, changes);
+			}
+		} catch (ClosedWatchServiceException e) {
+			throw new InterruptedException("watch service closed");
+		}
+		return changes;
+
+	}
+
+	private void collect(WatchKey key, Set<File> changes) {
+
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, report the directory itself as changed
+				changes.add(directory.toFile());
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			boolean inTree = this.watchTrees.stream().anyMatch(path::startsWith);
+			// files created or deleted next to an watched file might be new inputs of the same task
+			boolean nextToFile = event.kind() != StandardWatchEventKinds.ENTRY_MODIFY && this.watchFileParents.contains(directory);
+			if (!inTree && !nextToFile && !this.watchFiles.contains(path)) continue;
+			changes.add(path.toFile());
+
+			// watch new sub directories of the watched directories
+			if (inTree && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				try (Stream<Path> tree = Files.walk(path)) {
+					for (Path sub : tree.filter(Files::isDirectory).toList())
+						if (!this.watchKeys.containsKey(sub)) register(sub);
+				} catch (IOException e) {
+					// directory was deleted again
+				}
+			}
+		}
+		if (!key.reset()) this.watchKeys.remove(directory);
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.watchService.close();
+	}
+
+}
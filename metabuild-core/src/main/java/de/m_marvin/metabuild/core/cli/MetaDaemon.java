@@ -0,0 +1,246 @@
+package de.m_marvin.metabuild.core.cli;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.m_marvin.cliutil.arguments.Arguments;
+import de.m_marvin.cliutil.arguments.CommandArgumentParser;
+import de.m_marvin.cliutil.exception.CommandArgumentException;
+import de.m_marvin.metabuild.api.core.IMeta;
+import de.m_marvin.metabuild.api.core.IMeta.MetaState;
+import de.m_marvin.metabuild.api.core.daemon.MetaDaemonClient;
+import de.m_marvin.metabuild.core.util.BuildEvents;
+import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.metabuild.core.util.VirtualThreads;
+
+/**
+ * Long living metabuild process which keeps an metabuild instance for one project directory loaded.<br>
+ * The plugins, the build file compiler and the caches stay loaded between builds, so repeated builds of the same project do not have to start an new JVM.
+ * Build requests are received from the MetaDaemonClient over an local socket, one build runs at a time.
+ * The daemon terminates itself after it did not receive any requests for some time.
+ */
+public class MetaDaemon {
+
+	public static final long IDLE_TIMEOUT_MINUTES = 180;
+	/* Max. time to wait for the header of an request, so an client which does not send anything can not block the daemon */
+	public static final long REQUEST_TIMEOUT_SECONDS = 10;
+
+	private final IMeta mb;
+	private final File workingDir;
+	private final String token;
+	private final FrameOutputStream output = new FrameOutputStream();
+
+	private MetaDaemon(IMeta mb, File workingDir, String token) {
+		this.mb = mb;
+		this.workingDir = workingDir;
+		this.token = token;
+	}
+
+	/**
+	 * Starts the daemon for the current working directory.<br>
+	 * The arguments are the same as for MetaLaunch, options which can only be set before the first build (like the cache directory and the log file) are taken from them.
+	 */
+	public static void main(String... args) {
+
+		File workingDir = new File(System.getProperty("user.dir")).getAbsoluteFile();
+
+		try {
+
+			List<String> taskList = MetaLaunch.taskList(args);
+			Arguments arguments = MetaLaunch.createParser().parse(Arrays.copyOfRange(args, taskList.size(), args.length));
+
+			IMeta mb = IMeta.instantiateMeta(MetaDaemon.class.getClassLoader());
+			mb.setWorkingDirectory(workingDir);
+			if (arguments.get("log") != null)
+				mb.setLogFile(arguments.get("log"));
+			if (arguments.get("cache-dir") != null)
+				mb.setCacheDirectory(arguments.get("cache-dir"));
+			boolean printLogs = arguments.get("info");
+
+			byte[] tokenBytes = new byte[16];
+			new SecureRandom().nextBytes(tokenBytes);
+			MetaDaemon daemon = new MetaDaemon(mb, workingDir, HexFormat.of().formatHex(tokenBytes));
+
+			mb.setTerminalOutput(new PrintStream(daemon.output, true, StandardCharsets.UTF_8), !printLogs);
+			mb.setConsoleStreamInput(null);
+
+			// keep the flight recorder events of the last builds, they can be dumped with jcmd
+			if (!arguments.flag("no-jfr"))
+				BuildEvents.startRecording();
+			
+			File cacheDir = FileUtility.absolute(arguments.get("cache-dir") != null ? arguments.get("cache-dir") : IMeta.DEFAULT_CACHE_DIRECTORY, workingDir);
+			daemon.serve(MetaDaemonClient.portFile(cacheDir, workingDir));
+
+			mb.terminate();
+			System.exit(0);
+
+		} catch (CommandArgumentException | InstantiationException | IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+	}
+
+	/**
+	 * Accepts build requests until the idle timeout is reached.
+	 * @param portFile The file to publish the port and access token to
+	 */
+	private void serve(File portFile) throws IOException {
+
+		try (ServerSocket server = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+
+			// publish port, the file is only written completely or not at all
+			File tempFile = new File(portFile.getParentFile(), portFile.getName() + ".tmp");
+			try (PrintWriter writer = new PrintWriter(new FileOutputStream(tempFile), false, StandardCharsets.UTF_8)) {
+				writer.println(server.getLocalPort());
+				writer.println(this.token);
+			}
+			if (!tempFile.renameTo(portFile))
+				throw new IOException("could not publish daemon port file: " + portFile);
+			portFile.deleteOnExit();
+
+			server.setSoTimeout((int) TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES));
+			while (true) {
+				Socket client;
+				try {
+					client = server.accept();
+				} catch (SocketTimeoutException e) {
+					break;
+				}
+				try (client) {
+					handleRequest(client);
+				} catch (IOException e) {
+					// client disconnected or did not send its request in time, continue with next request
+				}
+				if (this.mb.getState() == MetaState.ERROR) break;
+			}
+
+		} finally {
+			portFile.delete();
+		}
+
+	}
+
+	private void handleRequest(Socket client) throws IOException {
+
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		DataOutputStream out = new DataOutputStream(client.getOutputStream());
+
+		client.setSoTimeout((int) TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS));
+		if (in.readInt() != MetaDaemonClient.PROTOCOL_VERSION || !this.token.equals(in.readUTF())) return;
+		String requestDir = in.readUTF();
+		String[] args = new String[in.readInt()];
+		for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+		client.setSoTimeout(0);
+
+		this.output.target = out;
+		int exitCode;
+		try {
+			if (!new File(requestDir).getAbsoluteFile().equals(this.workingDir)) {
+				this.output.write(String.format("\033[31mdaemon runs for different project: %s\033[0m\n", this.workingDir).getBytes(StandardCharsets.UTF_8));
+				exitCode = -1;
+			} else {
+				// abort the build if the client disconnects while it is still running
+				AtomicBoolean building = new AtomicBoolean(true);
+				VirtualThreads.start("DaemonClientWatch", () -> {
+					try {
+						while (in.read() >= 0);
+					} catch (IOException e) {}
+					synchronized (building) {
+						if (building.get()) this.mb.abortTasks();
+					}
+				});
+				try {
+					exitCode = runBuild(args);
+				} finally {
+					synchronized (building) {
+						building.set(false);
+					}
+				}
+			}
+		} finally {
+			this.output.target = null;
+		}
+
+		synchronized (this.output) {
+			out.writeByte(MetaDaemonClient.FRAME_EXIT);
+			out.writeInt(exitCode);
+			out.flush();
+		}
+
+	}
+
+	private int runBuild(String[] args) {
+
+		CommandArgumentParser parser = MetaLaunch.createParser();
+		List<String> taskList = MetaLaunch.taskList(args);
+		PrintStream print = new PrintStream(this.output, true, StandardCharsets.UTF_8);
+
+		try {
+			Arguments arguments = parser.parse(Arrays.copyOfRange(args, taskList.size(), args.length));
+			if (args.length == 0 || arguments.flag("help")) {
+				print.println("meta < [tasks] ... > < options >");
+				print.println(parser.printHelp());
+				return 1;
+			}
+			return MetaLaunch.runBuild(this.mb, taskList, arguments);
+		} catch (CommandArgumentException e) {
+			print.println(e.getMessage());
+			return -1;
+		} catch (Throwable e) {
+			e.printStackTrace(print);
+			return 2;
+		}
+
+	}
+
+	/**
+	 * Sends everything written to it as output frames to the currently connected client, or discards it if no client is connected.
+	 */
+	private static class FrameOutputStream extends OutputStream {
+
+		private volatile DataOutputStream target;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			DataOutputStream target = this.target;
+			if (target == null) return;
+			try {
+				target.writeByte(MetaDaemonClient.FRAME_OUTPUT);
+				target.writeInt(len);
+				target.write(b, off, len);
+				target.flush();
+			} catch (IOException e) {
+				// client disconnected, discard output, closing the stream closes the socket so the build is aborted
+				this.target = null;
+				try {
+					target.close();
+				} catch (IOException e1) {}
+			}
+		}
+
+	}
+
+}
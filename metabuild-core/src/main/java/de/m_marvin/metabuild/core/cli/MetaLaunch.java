@@ -1,15 +1,20 @@
 package de.m_marvin.metabuild.core.cli;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import de.m_marvin.cliutil.arguments.Arguments;
 import de.m_marvin.cliutil.arguments.CommandArgumentParser;
 import de.m_marvin.cliutil.exception.CommandArgumentException;
 import de.m_marvin.metabuild.api.core.IMeta;
+import de.m_marvin.metabuild.api.core.IMeta.MetaState;
+import de.m_marvin.metabuild.api.core.daemon.MetaDaemonClient;
 import de.m_marvin.metabuild.core.Metabuild;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
 
 public class MetaLaunch {
 	
@@ -18,24 +23,10 @@ public class MetaLaunch {
 	public static void main(String... args) {
 		
 		// Read list of tasks to run
-		List<String> taskRunList = new ArrayList<>();
-		for (String s : args) {
-			if (!Metabuild.TASK_NAME_FILTER.matcher(s).matches()) break;
-			taskRunList.add(s);
-		}
+		List<String> taskRunList = taskList(args);
 		
 		// Initialize argument parser
-		CommandArgumentParser parser = new CommandArgumentParser();
-		parser.addOption("help", false, "show command help");
-		parser.addOption("build-file", Metabuild.DEFAULT_BUILD_FILE_NAME, "build file to load and run tasks from");
-		parser.addOption("cache-dir", Metabuild.DEFAULT_CACHE_DIRECTORY, "directory to save all cache data");
-		parser.addOption("log", Metabuild.DEFAULT_BUILD_LOG_NAME, "file to write build log to");
-		parser.addOption("threads", Integer.toString(Metabuild.DEFAULT_TASK_THREADS), "number of threads to utilize for executing build tasks");
-		parser.addOption("refresh-dependencies", false, "if set, re-download all dependencies and replace current cache");
-		parser.addOption("info", false, "print additional log information to the terminal during build process");
-		parser.addOption("force", false, "if set, all tasks are run even if they are up to date");
-		parser.addOption("no-build", false, "skips loading the projects build file, can be used to update metabuild while ignoring a broken buildfile");
-		parser.addOption("prepare", false, "skip actual run phase and only run prepare phase");
+		CommandArgumentParser parser = createParser();
 		
 		try {
 			
@@ -50,6 +41,11 @@ public class MetaLaunch {
 			// Launch and run metabuild
 			try {
 				File workingDir = new File(System.getProperty("user.dir"));
+				if (arguments.flag("daemon") && !arguments.flag("watch")) {
+					int r = launchDaemonBuild(workingDir, args);
+					if (r != MetaDaemonClient.DAEMON_UNAVAILABLE) System.exit(r);
+					System.err.println("\033[31mcould not reach meta daemon, running build in this process\033[0m");
+				}
 				int r = launchMetabuild(workingDir, taskRunList, arguments);
 				System.exit(r);
 			} catch (Throwable e) {
@@ -63,6 +59,59 @@ public class MetaLaunch {
 		
 	}
 	
+	/**
+	 * @return The tasks to run, listed in front of the options in the arguments
+	 */
+	public static List<String> taskList(String... args) {
+		List<String> taskRunList = new ArrayList<>();
+		for (String s : args) {
+			if (!Metabuild.TASK_NAME_FILTER.matcher(s).matches()) break;
+			taskRunList.add(s);
+		}
+		return taskRunList;
+	}
+	
+	public static CommandArgumentParser createParser() {
+		CommandArgumentParser parser = new CommandArgumentParser();
+		parser.addOption("help", false, "show command help");
+		parser.addOption("build-file", Metabuild.DEFAULT_BUILD_FILE_NAME, "build file to load and run tasks from");
+		parser.addOption("cache-dir", Metabuild.DEFAULT_CACHE_DIRECTORY, "directory to save all cache data");
+		parser.addOption("log", Metabuild.DEFAULT_BUILD_LOG_NAME, "file to write build log to");
+		parser.addOption("threads", Integer.toString(Metabuild.DEFAULT_TASK_THREADS), "number of threads to utilize for executing build tasks");
+		parser.addOption("refresh-dependencies", false, "if set, re-download all dependencies and replace current cache");
+		parser.addOption("info", false, "print additional log information to the terminal during build process");
+		parser.addOption("force", false, "if set, all tasks are run even if they are up to date");
+		parser.addOption("no-build", false, "skips loading the projects build file, can be used to update metabuild while ignoring a broken buildfile");
+		parser.addOption("prepare", false, "skip actual run phase and only run prepare phase");
+		parser.addOption("parallel-prepare", false, "run the prepare phase of independent tasks in parallel");
+		parser.addOption("keep-going", false, "continue running tasks which do not depend on an failed task");
+		parser.addOption("virtual-threads", false, "run tasks on virtual threads, limited by the cpu resource pool instead of the thread count");
+		parser.addOption("resources", "", "limits for the resources claimed by parallel tasks, e.g. cpu=4,mem=8G,io=2,net=4");
+		parser.addOption("no-build-cache", false, "do not store or restore task outputs in the build cache");
+		parser.addOption("build-cache-size", Long.toString(Metabuild.DEFAULT_BUILD_CACHE_SIZE) + "M", "max. size of the build cache, the least recently used entries are removed first");
+		parser.addOption("remote-cache", "", "base URL of an remote build cache server to download task outputs from");
+		parser.addOption("remote-cache-push", false, "upload new task outputs to the remote build cache");
+		parser.addOption("profile", false, "record an trace of the build, which can be opened in chrome://tracing or the Perfetto UI");
+		parser.addOption("profile-file", Metabuild.DEFAULT_PROFILE_FILE, "file to write the build trace to");
+		parser.addOption("daemon", false, "run the build on an background daemon which keeps the project loaded between builds");
+		parser.addOption("no-jfr", false, "do not record flight recorder events in the daemon");
+		parser.addOption("configuration-cache", false, "keep the configured tasks between builds on the daemon while the build files are unchanged");
+		parser.addOption("watch", false, "after the build, wait for changes of the task inputs or build files and run the tasks again, until terminated");
+		return parser;
+	}
+	
+	/**
+	 * Runs the build on the daemon of the working directory, which is started if not yet running.
+	 * @return The exit code of the build or MetaDaemonClient.DAEMON_UNAVAILABLE if the daemon could not be reached
+	 */
+	public static int launchDaemonBuild(File workingDir, String... args) {
+		String java = ProcessHandle.current().info().command().orElse("java");
+		String classpath = new File(MetaLaunch.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getAbsolutePath();
+		List<String> daemonCommand = List.of(java, "-cp", classpath, MetaDaemonClient.DAEMON_MAIN_CLASS);
+		String[] daemonArgs = Arrays.stream(args).filter(a -> !a.matches("-{1,2}daemon")).toArray(String[]::new);
+		return MetaDaemonClient.runBuild(workingDir, daemonArgs, daemonCommand, System.out);
+	}
+	
 	public static int launchMetabuild(File workingDir, List<String> taskList, Arguments args) throws CommandArgumentException {
 		
 		IMeta mb;
@@ -81,22 +130,54 @@ public class MetaLaunch {
 			mb.setLogFile(args.get("log"));
 		if (args.get("cache-dir") != null)
 			mb.setCacheDirectory(args.get("cache-dir"));
-		if (args.flag("refresh-dependencies"))
-			mb.setRefreshDependencies(true);
-		if (args.flag("force"))
-			mb.setForceRunTasks(true);
-		if (args.flag("prepare"))
-			mb.setSkipTaskRun(true);
 		boolean printLogs = args.get("info");
-
-		// Parse build threads
-		if (args.get("threads") != null)
-			mb.setTaskThreads(Integer.parseInt(args.get("threads")));
 		
 		mb.setTerminalOutput(System.out, !printLogs);
 		
 		mb.setConsoleStreamInput(System.in);
 		
+		int r = args.flag("watch") ? watchBuild(mb, taskList, args) : runBuild(mb, taskList, args);
+		
+		mb.terminate();
+		return r;
+		
+	}
+	
+	/**
+	 * Applies the options which can change between builds, loads the build file and runs the tasks.
+	 * @return The exit code of the build
+	 */
+	public static int runBuild(IMeta mb, List<String> taskList, Arguments args) throws CommandArgumentException {
+		
+		mb.setRefreshDependencies(args.flag("refresh-dependencies"));
+		mb.setForceRunTasks(args.flag("force"));
+		mb.setSkipTaskRun(args.flag("prepare"));
+		mb.setParallelPrepare(args.flag("parallel-prepare"));
+		mb.setKeepGoing(args.flag("keep-going"));
+		mb.setVirtualThreads(args.flag("virtual-threads"));
+		mb.setBuildCache(!args.flag("no-build-cache"));
+		if (args.get("build-cache-size") != null)
+			mb.setBuildCacheSize(parseResourceAmount(args.get("build-cache-size")));
+		mb.setRemoteBuildCache(args.get("remote-cache"), args.flag("remote-cache-push"));
+		mb.setProfileFile(args.flag("profile") ? args.get("profile-file") : null);
+		mb.setConfigurationCache(args.flag("configuration-cache") || args.flag("watch"));
+		
+		// Parse build threads
+		if (args.get("threads") != null)
+			mb.setTaskThreads(Integer.parseInt(args.get("threads")));
+		
+		// Parse resource limits
+		for (TaskResource resource : TaskResource.values())
+			mb.setResourceLimit(resource.getName(), -1);
+		String resources = args.get("resources");
+		if (resources != null && !resources.isBlank()) {
+			for (String limit : resources.split(",")) {
+				String[] entry = limit.split("=", 2);
+				if (entry.length != 2) throw new CommandArgumentException("invalid resource limit: " + limit);
+				mb.setResourceLimit(entry[0].strip(), parseResourceAmount(entry[1].strip()));
+			}
+		}
+		
 		// Load build file
 		if (args.flag("no-build")) {
 			if (!mb.initBuild(null)) return -1;
@@ -110,9 +191,51 @@ public class MetaLaunch {
 		// Run tasks
 		boolean buildState = mb.runTasks(taskList);
 		
-		mb.terminate();
 		return buildState ? 0 : -1;
 		
 	}
 	
+	/**
+	 * Runs the build and runs it again each time the inputs of its tasks or the build files change, until the process is terminated.<br>
+	 * The configured tasks are kept while the build files are unchanged, only the tasks affected by the changed files are prepared again.
+	 * @return The exit code of the last build, if watching was interrupted
+	 */
+	public static int watchBuild(IMeta mb, List<String> taskList, Arguments args) throws CommandArgumentException {
+		
+		int r = -1;
+		try (BuildWatcher watcher = new BuildWatcher()) {
+			while (true) {
+				r = runBuild(mb, taskList, args);
+				if (mb.getState() == MetaState.ERROR) return r;
+				
+				watcher.watch(mb.getWatchFiles());
+				System.out.println(String.format("\033[36mwatching %d directories for changes ...\033[0m", watcher.watchedDirectories()));
+				Set<File> changes = watcher.awaitChanges();
+				System.out.println(String.format("\033[36m%d files changed, running build again\033[0m", changes.size()));
+				mb.filesChanged(changes);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 2;
+		} catch (InterruptedException e) {
+			return r;
+		}
+		
+	}
+	
+	/**
+	 * Parses an resource amount, memory and storage amounts can use the suffixes M and G, plain numbers are megabytes.
+	 */
+	private static long parseResourceAmount(String amount) throws CommandArgumentException {
+		try {
+			if (amount.endsWith("G") || amount.endsWith("g"))
+				return Long.parseLong(amount.substring(0, amount.length() - 1)) * 1024;
+			if (amount.endsWith("M") || amount.endsWith("m"))
+				return Long.parseLong(amount.substring(0, amount.length() - 1));
+			return Long.parseLong(amount);
+		} catch (NumberFormatException e) {
+			throw new CommandArgumentException("invalid resource amount: " + amount);
+		}
+	}
+	
 }
@@ -43,6 +43,7 @@ public class OutputHandler {
 			@Override
 			public synchronized void taskCount(int taskCount) {
 				tasksCount = taskCount;
+				tasksCompleted = 0;
 				if (OutputHandler.this.printUI) printStatusUI();
 			}
 			
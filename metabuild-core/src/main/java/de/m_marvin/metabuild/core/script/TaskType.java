@@ -1,11 +1,11 @@
 package de.m_marvin.metabuild.core.script;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class TaskType {
 	
-	private static final Map<String, TaskType> registered = new HashMap<>();
+	private static final Map<String, TaskType> registered = new ConcurrentHashMap<>();
 	
 	private final String name;
 	
@@ -14,10 +14,7 @@ public final class TaskType {
 	}
 	
 	public static TaskType named(String name) {
-		if (!registered.containsKey(name)) {
-			registered.put(name, new TaskType(name));
-		}
-		return registered.get(name);
+		return registered.computeIfAbsent(name, TaskType::new);
 	}
 	
 	public String getName() {
@@ -1,37 +1,71 @@
 package de.m_marvin.metabuild.core.script.compile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.ByteBuffer;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.attribute.FileTime;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Optional;
-import java.util.stream.Stream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 
-import de.m_marvin.javarun.compile.SourceCompiler;
 import de.m_marvin.metabuild.core.Metabuild;
 import de.m_marvin.metabuild.core.exception.MetaInitError;
 import de.m_marvin.metabuild.core.script.BuildScript;
+import de.m_marvin.metabuild.core.util.BuildEvents;
 import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.metabuild.core.util.HashUtility;
 import de.m_marvin.simplelogging.api.Logger;
 
+/**
+ * Compiles build files and caches the compiled classes in the cache directory.<br>
+ * Each build file is compiled into its own package, named by an hash of the build file content and the classpath it is compiled against.
+ * The cached classes are used by all build files with the same content, regardless of their location, and are never outdated.
+ * The least recently used entries are removed from the cache if it exceeds its max. number of entries.
+ */
 public class ScriptCompiler {
 	
 	protected static final String LOG_TAG = "ScriptCompiler";
+	protected static final String PACKAGE_PREFIX = "buildfile_";
+	public static final int MAX_CACHE_ENTRIES = 512;
 	
 	private final JavaCompiler compiler;
 	private final Metabuild mb;
+	/* File manager shared by all compilations of an build load, keeps the classpath jars open between them */
+	private StandardJavaFileManager fileManager;
+	/* Fingerprint of the classpath of the current build load, null if not yet determined */
+	private String classpathFingerprint;
+	/* Content hashes of the classpath jars, by path, size and modification time */
+	private final Map<String, String> jarHashes = new HashMap<>();
+	/* The cache entries used by the current build load, not removed from the cache */
+	private final Set<String> usedEntries = new HashSet<>();
 	
 	public ScriptCompiler(Metabuild mb) {
 		this.mb = mb;
@@ -51,55 +85,172 @@ public class ScriptCompiler {
 		return this.mb.logger();
 	}
 	
+	/**
+	 * Determines an fingerprint of the classpath, which changes if any class the build files could be compiled against changes.<br>
+	 * Jars are identified by their name and content, not their location, so the fingerprint is the same for different checkouts.
+	 * @param classpath The classpath the build files are compiled against
+	 * @return The fingerprint of the classpath
+	 */
+	public String classpathFingerprint(Collection<File> classpath) {
+		
+		Set<File> entries = new LinkedHashSet<>();
+		for (String path : System.getProperty("java.class.path").split(File.pathSeparator))
+			if (!path.isEmpty()) entries.add(FileUtility.absolute(new File(path)));
+		for (File file : classpath)
+			entries.add(FileUtility.absolute(file));
+		
+		// the order of the entries only matters for duplicate classes, sort them so the import order does not change the fingerprint
+		Set<String> fingerprints = new TreeSet<>();
+		for (File entry : entries) {
+			if (entry.isFile()) {
+				String key = entry.getPath() + "|" + entry.length() + "|" + entry.lastModified();
+				String contentHash = this.jarHashes.get(key);
+				if (contentHash == null) {
+					try {
+						contentHash = HashUtility.hash(entry);
+						this.jarHashes.put(key, contentHash);
+					} catch (IOException e) {
+						logger().warnt(LOG_TAG, "could not read classpath file: %s - %s", entry, e.getMessage());
+						contentHash = key;
+					}
+				}
+				fingerprints.add(entry.getName() + ":" + contentHash);
+			} else if (entry.isDirectory()) {
+				// class directories only occur in development setups, identify their content by the file timestamps
+				StringBuilder content = new StringBuilder();
+				for (File file : FileUtility.deepList(entry))
+					content.append(FileUtility.relative(file, entry)).append('|').append(file.length()).append('|').append(file.lastModified()).append('\n');
+				fingerprints.add(entry.getName() + ":" + HashUtility.hash(content.toString()));
+			}
+		}
+		fingerprints.add("java:" + System.getProperty("java.specification.version"));
+		
+		return HashUtility.hash(String.join("\n", fingerprints));
+		
+	}
+	
+	/**
+	 * @return The name of the package the build file source is compiled into
+	 */
+	public String packageName(String source) {
+		if (this.classpathFingerprint == null)
+			this.classpathFingerprint = classpathFingerprint(this.mb.getBuildfileClasspath());
+		return PACKAGE_PREFIX + HashUtility.hash(this.classpathFingerprint + "\n" + source);
+	}
+	
+	/**
+	 * @return The cached class file of the build script class in the package
+	 */
+	public File classCacheFile(String packageName) {
+		return new File(getCompileCache(), packageName + "/" + Metabuild.BUILD_SCRIPT_CLASS_NAME + ".class");
+	}
+	
+	/**
+	 * @return true if the package is in the cache, it is then marked as recently used
+	 */
+	protected boolean isCached(String packageName) {
+		File packageDir = new File(getCompileCache(), packageName);
+		if (!classCacheFile(packageName).isFile()) return false;
+		packageDir.setLastModified(System.currentTimeMillis());
+		this.usedEntries.add(packageDir.getName());
+		return true;
+	}
+	
+	/**
+	 * @return The file listing the build files imported by the last load of the build file
+	 */
+	protected File importsFile(File buildFile) {
+		return new File(getCompileCache(), HashUtility.hash(FileUtility.absolute(buildFile).getPath()) + ".imports");
+	}
+	
+	/**
+	 * Remembers the build files which were imported while loading the build file, so they can be compiled together on the next load.
+	 * @param buildFile The root build file
+	 * @param imports All build files loaded, including the root build file
+	 */
+	public void recordImports(File buildFile, Collection<File> imports) {
+		File importsFile = importsFile(buildFile);
+		this.usedEntries.add(importsFile.getName());
+		Collection<File> previous = FileUtility.loadFilePath(importsFile);
+		if (previous != null && previous.size() == imports.size() && previous.containsAll(imports)) {
+			importsFile.setLastModified(System.currentTimeMillis());
+			return;
+		}
+		if (!FileUtility.writeFilePath(importsFile, imports))
+			logger().warnt(LOG_TAG, "could not save build file imports: %s", importsFile);
+	}
+	
+	/**
+	 * Compiles the build file and all build files it imported during its last load in one compilation, if they are not cached.<br>
+	 * If the compilation fails, no error is reported, the build files are then compiled one after another when they are loaded, to report their errors.<br>
+	 * Should be called at the start of each build load, it also determines the classpath fingerprint for the build files of the load.
+	 * @param buildFile The root build file
+	 */
+	public void precompile(File buildFile) {
+		
+		// start each load with an new file manager, the plugins on the classpath might have changed
+		closeFileManager();
+		this.usedEntries.clear();
+		
+		Set<File> buildFiles = new LinkedHashSet<>();
+		buildFiles.add(FileUtility.absolute(buildFile));
+		Collection<File> imports = FileUtility.loadFilePath(importsFile(buildFile));
+		if (imports != null) buildFiles.addAll(imports);
+		
+		// plugins of the projects are only added to the class path while they are imported, include them in advance
+		List<File> classpath = new ArrayList<>(this.mb.getBuildfileClasspath());
+		for (File file : buildFiles) {
+			File[] pluginFiles = new File(file.getParentFile(), Metabuild.META_PROJECT_PLUGIN_LOCATION).listFiles();
+			if (pluginFiles == null) continue;
+			for (File pluginFile : pluginFiles)
+				if (FileUtility.getExtension(pluginFile).equalsIgnoreCase("jar") && !classpath.contains(pluginFile)) classpath.add(pluginFile);
+		}
+		this.classpathFingerprint = classpathFingerprint(classpath);
+		
+		// build files with the same content share their package
+		Map<String, BuildFileSource> outdated = new LinkedHashMap<>();
+		for (File file : buildFiles) {
+			if (!file.isFile()) continue;
+			String source = FileUtility.readFileUTF(file);
+			if (source == null) continue;
+			String packageName = packageName(source);
+			if (isCached(packageName)) continue;
+			outdated.putIfAbsent(packageName, new BuildFileSource(file, packageName, source));
+		}
+		if (outdated.size() < 2) return; // nothing to gain, compiled when loaded
+		
+		long start = System.currentTimeMillis();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		boolean r = compile(outdated.values(), classpath, diagnostics, null);
+		if (r) {
+			logger().infot(LOG_TAG, "compiled %d build files in %d ms", outdated.size(), System.currentTimeMillis() - start);
+		} else {
+			logger().debugt(LOG_TAG, "could not compile build files together, compiling them on load: %s", diagnostics.getDiagnostics());
+		}
+		
+	}
+	
 	public BuildScript loadBuildFile(File buildFile, ClassLoader pluginLoader) {
 		
-		String hash = null;
-		try {
-			ByteBuffer buf = ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(buildFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8)));
-			hash = Stream.generate(() -> buf.get()).limit(buf.capacity()).mapToInt(b -> b & 0xFF).mapToObj(i -> String.format("%02x", i)).reduce(String::concat).get();
-		} catch (NoSuchAlgorithmException e) {
-			logger().warnt(LOG_TAG, "could not get message digest instance, this could cause problems!");
-			hash = Long.toHexString(buildFile.getAbsolutePath().hashCode());
+		String source = FileUtility.readFileUTF(buildFile);
+		if (source == null) {
+			logger().errort(LOG_TAG, "could not read buildfile: %s", buildFile);
+			return null;
 		}
-
-		File classCache = new File(getCompileCache(), String.format("%s_%s.class",  buildFile.getName().substring(0, buildFile.getName().indexOf('.')), hash));
-		Optional<FileTime> buildFileTime = FileUtility.timestamp(buildFile);
-		Optional<FileTime> classFileTime = FileUtility.timestamp(classCache);
+		String packageName = packageName(source);
 		
-		if (buildFileTime.isEmpty() || classFileTime.isEmpty() ||
-			buildFileTime.get().compareTo(classFileTime.get()) > 0) {
-
-			try {
-				InputStream source = new FileInputStream(buildFile);
-				OutputStream target = new FileOutputStream(classCache);
-				
-				boolean r = compileBuildScript(source, target);
-				
-				source.close();
-				target.close();
-				
-				if (r) {
-					FileUtility.touch(classCache, buildFileTime.get());
-				} else {
-					classCache.delete();
-					return null;
-				}
-			} catch (FileNotFoundException e) {
-				logger().errort(LOG_TAG, "could not compile buildfile: %s", e.getMessage());
-				classCache.delete();
-				return null;
-			} catch (IOException e) {
-				logger().errort(LOG_TAG, "io exception while compiling build file: %s", e.getMessage());
-				e.printStackTrace();
-				classCache.delete();
+		if (!isCached(packageName)) {
+			PrintWriter out = logger().errorPrinter(LOG_TAG);
+			if (!compile(List.of(new BuildFileSource(buildFile, packageName, source)), this.mb.getBuildfileClasspath(), null, out)) {
+				logger().errort(LOG_TAG, "java compiler error, build file compilation failed!");
 				return null;
 			}
-			
 		}
 		
 		try {
-			ClassLoader buildfileLoader = new SingleFileClassLoader(pluginLoader, Metabuild.BUILD_SCRIPT_CLASS_NAME, classCache);
-			Class<?> buildfileClass = buildfileLoader.loadClass(Metabuild.BUILD_SCRIPT_CLASS_NAME);
+			// each load gets its own class loader, so an changed build file is loaded again
+			ClassLoader buildfileLoader = new URLClassLoader(new URL[] { getCompileCache().toURI().toURL() }, pluginLoader);
+			Class<?> buildfileClass = buildfileLoader.loadClass(packageName + "." + Metabuild.BUILD_SCRIPT_CLASS_NAME);
 			Object buildScriptObject = buildfileClass.getConstructor().newInstance();
 			if (buildScriptObject instanceof BuildScript buildScript) return buildScript;
 			
@@ -120,30 +271,162 @@ public class ScriptCompiler {
 		}
 	}
 	
-	public boolean compileBuildScript(InputStream source, OutputStream target) throws IOException {
-		
-		SourceCompiler sourceCompiler = new SourceCompiler(this.compiler);
-		sourceCompiler.setOut(logger().errorPrinter(LOG_TAG));
+	/**
+	 * Compiles the build files in one compilation and adds their classes to the build file cache.<br>
+	 * The classes of each package are written to an temporary directory first and then moved into the cache,
+	 * so other processes sharing the cache never see an incomplete package.
+	 * @param sources The build files to compile, each in an different package
+	 * @param classpath The classpath to compile against
+	 * @param diagnostics The listener to report errors to, or null to print them to out
+	 * @param out The writer to print errors to, if no listener is set
+	 * @return true if all build files were compiled successfully
+	 */
+	protected boolean compile(Collection<BuildFileSource> sources, Collection<File> classpath, DiagnosticCollector<JavaFileObject> diagnostics, Writer out) {
 		
-		String classpath = this.mb.getBuildfileClasspath().stream()
+		String classpathStr = classpath.stream()
 				.map(File::getAbsolutePath)
 				.reduce((a, b) -> a + File.pathSeparator + b)
 				.orElse("");
-		logger().debugt(LOG_TAG, "java compiler classpath: %s", classpath);
+		logger().debugt(LOG_TAG, "java compiler classpath: %s", classpathStr);
+		
+		Map<String, File> packageDirs = new LinkedHashMap<>();
 		
-		if (!sourceCompiler.compile(Metabuild.BUILD_SCRIPT_CLASS_NAME, new String(source.readAllBytes()), classpath)) {
-			logger().errort(LOG_TAG, "java compiler error, build file compilation failed!");
-			return false;
+		BuildEvents.ScriptCompile event = new BuildEvents.ScriptCompile();
+		event.begin();
+		boolean r = false;
+		try {
+			MemoryFileManager fileManager = new MemoryFileManager(fileManager());
+			List<String> options = List.of("-classpath", System.getProperty("java.class.path") + File.pathSeparator + classpathStr);
+			r = this.compiler.getTask(out, fileManager, diagnostics, options, null, sources).call();
+			if (!r) return false;
+			
+			for (BuildFileSource source : sources)
+				packageDirs.put(source.packageName, Files.createTempDirectory(getCompileCache().toPath(), source.packageName).toFile());
+			for (var entry : fileManager.classes.entrySet()) {
+				int separator = entry.getKey().lastIndexOf('.');
+				if (separator < 0) continue;
+				File packageDir = packageDirs.get(entry.getKey().substring(0, separator));
+				if (packageDir == null) continue;
+				Files.write(new File(packageDir, entry.getKey().substring(separator + 1) + ".class").toPath(), entry.getValue().toByteArray());
+			}
+			for (var entry : packageDirs.entrySet()) {
+				File packageDir = new File(getCompileCache(), entry.getKey());
+				try {
+					Files.move(entry.getValue().toPath(), packageDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					// compiled by an other process in the meantime, the content is the same
+					if (!classCacheFile(entry.getKey()).isFile()) throw e;
+				}
+				this.usedEntries.add(entry.getKey());
+			}
+			evict();
+			return true;
+		} catch (IOException e) {
+			logger().errort(LOG_TAG, "io exception while compiling build file: %s", e.getMessage());
+			return r = false;
+		} finally {
+			for (File tempDir : packageDirs.values())
+				if (tempDir.exists()) FileUtility.delete(tempDir);
+			if (event.shouldCommit()) {
+				event.buildFile = sources.size() == 1 ? sources.iterator().next().buildFile.getPath() : String.format("%d build files", sources.size());
+				event.success = r;
+				event.commit();
+			}
 		}
 		
-		byte[] classBytes = sourceCompiler.getClassFileManager().getClassBytes(Metabuild.BUILD_SCRIPT_CLASS_NAME);
-		if (classBytes == null) {
-			logger().errort(LOG_TAG, "java compiler error, build file compilation failed!");
-			return false;
+	}
+	
+	/**
+	 * Removes the least recently used entries until the cache is within its max. number of entries.<br>
+	 * Entries used by the current build load are not removed.
+	 */
+	protected void evict() {
+		File[] entries = getCompileCache().listFiles();
+		if (entries == null || entries.length <= MAX_CACHE_ENTRIES) return;
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		int count = entries.length;
+		for (File entry : entries) {
+			if (count <= MAX_CACHE_ENTRIES) break;
+			if (this.usedEntries.contains(entry.getName())) continue;
+			if (FileUtility.delete(entry)) count--;
 		}
-		target.write(classBytes);
+		logger().debugt(LOG_TAG, "removed %d entries from build file cache", entries.length - count);
+	}
+	
+	private StandardJavaFileManager fileManager() {
+		if (this.fileManager == null)
+			this.fileManager = this.compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+		return this.fileManager;
+	}
+	
+	private void closeFileManager() {
+		this.classpathFingerprint = null;
+		if (this.fileManager == null) return;
+		try {
+			this.fileManager.close();
+		} catch (IOException e) {
+			logger().warnt(LOG_TAG, "could not close compiler file manager: %s", e.getMessage());
+		}
+		this.fileManager = null;
+	}
+	
+	/**
+	 * Releases the file manager and the classpath files it holds open.
+	 */
+	public void close() {
+		closeFileManager();
+	}
+	
+	/**
+	 * The source of an build file, with an package declaration in front of the first line so the line numbers stay the same.
+	 */
+	protected static class BuildFileSource extends SimpleJavaFileObject {
 		
-		return true;
+		private final File buildFile;
+		private final String packageName;
+		private final String source;
+		
+		public BuildFileSource(File buildFile, String packageName, String source) {
+			super(buildFile.getAbsoluteFile().toURI(), Kind.SOURCE);
+			this.buildFile = buildFile;
+			this.packageName = packageName;
+			this.source = source;
+		}
+		
+		@Override
+		public boolean isNameCompatible(String simpleName, Kind kind) {
+			return kind == Kind.SOURCE && simpleName.equals(Metabuild.BUILD_SCRIPT_CLASS_NAME);
+		}
+		
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+			return "package " + this.packageName + "; " + this.source;
+		}
+		
+	}
+	
+	/**
+	 * Keeps the compiled classes in memory, so they are only written to the cache if the compilation succeeded.
+	 */
+	protected static class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+		
+		protected final Map<String, ByteArrayOutputStream> classes = new LinkedHashMap<>();
+		
+		public MemoryFileManager(JavaFileManager fileManager) {
+			super(fileManager);
+		}
+		
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+			return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension), kind) {
+				@Override
+				public OutputStream openOutputStream() throws IOException {
+					ByteArrayOutputStream stream = new ByteArrayOutputStream();
+					MemoryFileManager.this.classes.put(className, stream);
+					return stream;
+				}
+			};
+		}
 		
 	}
 	
@@ -1,13 +1,34 @@
 package de.m_marvin.metabuild.core.tasks;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import de.m_marvin.metabuild.core.Metabuild;
+import de.m_marvin.metabuild.core.cache.BuildCache;
+import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.exception.BuildScriptException;
 import de.m_marvin.metabuild.core.script.BuildScript;
 import de.m_marvin.metabuild.core.script.TaskType;
+import de.m_marvin.metabuild.core.util.BuildEvents;
+import de.m_marvin.metabuild.core.util.BuildTrace;
+import de.m_marvin.metabuild.core.util.FileTree;
+import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.simplelogging.api.Logger;
 
 /**
@@ -19,9 +40,27 @@ public class BuildTask {
 	public TaskType type = TaskType.named("undefined");
 	public String name;
 	public String group;
+	/* If the declared outputs of this task can be stored in and restored from the build cache */
+	public boolean cacheable = false;
+	/* Amount of each resource this task claims while running, by default one cpu core */
+	protected final Map<TaskResource, Long> resources = new EnumMap<>(TaskResource.class);
+	/* Inputs, outputs and properties declared during the preparation, fingerprinted to determine if the task is up to date */
+	private final Set<File> inputFiles = new LinkedHashSet<>();
+	/* Input files and directories already scanned during the preparation, so they are not scanned again for the fingerprints */
+	private final Map<File, List<FileTree.Entry>> inputScans = new HashMap<>();
+	private final Set<File> outputFiles = new LinkedHashSet<>();
+	private final Map<String, String> properties = new TreeMap<>();
+	private TaskSnapshot snapshot;
+	private FileChanges inputChanges;
+	private String outputKey;
 
 	protected TaskState state;
-	protected boolean abortRequest;
+	protected volatile boolean abortRequest;
+	private CompletableFuture<Void> abortSignal = new CompletableFuture<>();
+	protected boolean dependencyChanged;
+	protected boolean outputsChanged;
+	private long prepareTime;
+	private long runTime = -1;
 	private BuildScript buildscript;
 	private Consumer<String> statusCallback;
 	
@@ -32,6 +71,7 @@ public class BuildTask {
 	public BuildTask(String name) {
 		Objects.requireNonNull(name, "task name can not be null");
 		this.name = name;
+		this.resources.put(TaskResource.CPU, 1L);
 		if (this.getClass() != RootTask.class && !Metabuild.get().registerTask(this))
 			throw BuildScriptException.msg("failed to construct new task '%s'", name);
 	}
@@ -81,6 +121,211 @@ public class BuildTask {
 		Metabuild.get().taskDepend(task, this);
 	}
 	
+	/**
+	 * Declares the amount of an resource this task claims while running.
+	 * @param resource The resource to claim
+	 * @param amount The amount of the resource, 0 if the task does not use the resource
+	 */
+	public void demands(TaskResource resource, long amount) {
+		if (amount < 0) throw BuildScriptException.msg("resource demand of task '%s' can not be negative: %s", this.name, resource);
+		this.resources.put(resource, amount);
+	}
+	
+	/**
+	 * @return The amount of the resource this task claims while running
+	 */
+	public long demand(TaskResource resource) {
+		return this.resources.getOrDefault(resource, 0L);
+	}
+	
+	/**
+	 * Declares input files of this task, directories include all files in them.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param files The input files and directories
+	 */
+	public void inputs(Collection<File> files) {
+		if (files.contains(null)) throw BuildScriptException.msg("no null entries allowed in inputs of task '%s'", this.name);
+		files.forEach(f -> this.inputFiles.add(FileUtility.absolute(f)));
+	}
+	
+	/**
+	 * Declares input files of this task, directories include all files in them.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param files The input files and directories
+	 */
+	public void inputs(File... files) {
+		inputs(Arrays.asList(files));
+	}
+	
+	/**
+	 * Declares input files of this task found by an scan, their attributes are used for the fingerprints instead of reading them again.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param entries The scanned input files and directories
+	 */
+	public void inputEntries(Collection<FileTree.Entry> entries) {
+		for (FileTree.Entry entry : entries) {
+			File file = FileUtility.absolute(entry.file());
+			this.inputFiles.add(file);
+			this.inputScans.put(file, List.of(entry));
+		}
+	}
+	
+	/**
+	 * Declares an input directory of this task which was already scanned, the scanned attributes are used for the fingerprints instead of scanning it again.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param path The input directory
+	 * @param scan All files in the directory, as returned by an scan of it
+	 */
+	public void inputTree(File path, List<FileTree.Entry> scan) {
+		File file = FileUtility.absolute(path);
+		this.inputFiles.add(file);
+		this.inputScans.put(file, scan);
+	}
+	
+	/**
+	 * Declares output files of this task, directories include all files in them.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param files The output files and directories
+	 */
+	public void outputs(Collection<File> files) {
+		if (files.contains(null)) throw BuildScriptException.msg("no null entries allowed in outputs of task '%s'", this.name);
+		files.forEach(f -> this.outputFiles.add(FileUtility.absolute(f)));
+	}
+	
+	/**
+	 * Declares output files of this task, directories include all files in them.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param files The output files and directories
+	 */
+	public void outputs(File... files) {
+		outputs(Arrays.asList(files));
+	}
+	
+	/**
+	 * Declares an property which influences the outputs of this task, the task is outdated if its value changes.<br>
+	 * Should be called during the preparation, the declarations are reset before each preparation.
+	 * @param name The name of the property
+	 * @param value The value of the property, compared by its string representation
+	 */
+	public void property(String name, Object value) {
+		Objects.requireNonNull(name, "property name can not be null");
+		this.properties.put(name, String.valueOf(value));
+	}
+	
+	/**
+	 * @return The input files and directories declared during the last preparation
+	 */
+	public Set<File> inputFiles() {
+		return Collections.unmodifiableSet(this.inputFiles);
+	}
+	
+	/**
+	 * @return The output files and directories declared during the last preparation
+	 */
+	public Set<File> outputFiles() {
+		return Collections.unmodifiableSet(this.outputFiles);
+	}
+	
+	/**
+	 * Fingerprints the declared inputs, outputs and properties and compares them with the snapshot of the last successful run.<br>
+	 * Files are compared by size and modification time first, their content is only hashed if one of them has changed.<br>
+	 * Should be called at the end of the preparation, after all inputs, outputs and properties were declared.
+	 * @return UPTODATE if nothing has changed since the last successful run, OUTDATED otherwise
+	 */
+	protected TaskState fingerprintState() {
+		File snapshotFile = TaskSnapshot.snapshotFile(Metabuild.get().cacheDir(), this);
+		TaskSnapshot previous = TaskSnapshot.load(snapshotFile);
+		this.snapshot = TaskSnapshot.take(this.properties, this.inputFiles, this.inputScans, previous);
+		this.inputChanges = this.snapshot.compare(previous, this.outputFiles);
+		if (!this.inputChanges.isEmpty()) {
+			// start to fetch the outputs from the remote cache while the dependencies are still running
+			BuildCache cache = Metabuild.get().buildCache();
+			if (this.cacheable && cache != null && !this.outputFiles.isEmpty()) {
+				this.outputKey = this.snapshot.outputKey(implementation(), Metabuild.get().buildWorkingDir(), this.outputFiles);
+				cache.prefetch(this.outputKey);
+			}
+			return TaskState.OUTDATED;
+		}
+		if (this.snapshot.isRehashed() && !this.snapshot.save(snapshotFile))
+			logger().warnt(logTag(), "could not save task snapshot: %s", snapshotFile);
+		return TaskState.UPTODATE;
+	}
+	
+	/**
+	 * @return The changes of the declared input files since the last successful run, determined by fingerprintState()
+	 */
+	protected FileChanges inputChanges() {
+		if (this.inputChanges == null) {
+			FileChanges changes = new FileChanges(false);
+			changes.added.addAll(this.inputFiles);
+			return changes;
+		}
+		return this.inputChanges;
+	}
+	
+	/**
+	 * Stores the fingerprints of the inputs taken during the preparation together with the fingerprints of the outputs produced by the run.
+	 */
+	private void saveSnapshot() {
+		if (this.snapshot == null) return;
+		File snapshotFile = TaskSnapshot.snapshotFile(Metabuild.get().cacheDir(), this);
+		this.snapshot.takeOutputs(this.outputFiles, TaskSnapshot.load(snapshotFile));
+		if (!this.snapshot.save(snapshotFile))
+			logger().warnt(logTag(), "could not save task snapshot: %s", snapshotFile);
+		this.snapshot = null;
+	}
+	
+	/**
+	 * Restores the declared outputs from the build cache, if the task is cacheable and the cache contains an entry for the current inputs.
+	 * @return true if the outputs were restored and the task does not need to run
+	 */
+	private boolean restoreOutputs() {
+		BuildCache cache = Metabuild.get().buildCache();
+		if (!this.cacheable || cache == null || this.snapshot == null || this.outputFiles.isEmpty()) return false;
+		File base = Metabuild.get().buildWorkingDir();
+		if (this.outputKey == null) this.outputKey = this.snapshot.outputKey(implementation(), base, this.outputFiles);
+		try {
+			if (!cache.load(this.outputKey, base, this.outputFiles)) return false;
+			logger().infot(logTag(), "restored outputs from build cache: %s", this.outputKey);
+			return true;
+		} catch (IOException e) {
+			throw BuildException.msg(e, "failed to restore outputs from build cache: %s", this.outputKey);
+		}
+	}
+	
+	/**
+	 * Stores the declared outputs in the build cache, if the task is cacheable.
+	 */
+	private void storeOutputs() {
+		BuildCache cache = Metabuild.get().buildCache();
+		if (!this.cacheable || cache == null || this.snapshot == null || this.outputFiles.isEmpty()) return;
+		File base = Metabuild.get().buildWorkingDir();
+		if (this.outputKey == null) this.outputKey = this.snapshot.outputKey(implementation(), base, this.outputFiles);
+		try {
+			cache.store(this.outputKey, base, this.outputFiles);
+		} catch (IOException e) {
+			logger().warnt(logTag(), "could not store outputs in build cache: %s", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Identifies the implementation of this task for the build cache, outputs of an different implementation are never reused.<br>
+	 * By default this is the class name and the version of the package declaring it.
+	 * @return An string identifying the implementation and its version
+	 */
+	protected String implementation() {
+		Package pkg = this.getClass().getPackage();
+		String version = pkg == null ? null : pkg.getImplementationVersion();
+		return this.getClass().getName() + "@" + (version == null ? Metabuild.get().getMetabuildVersion() : version) + ":" + this.name;
+	}
+	
+	/**
+	 * @return An string identifying this task across builds and projects, used as key for the persistent state of this task
+	 */
+	public String taskKey() {
+		return this.buildscript().buildfileLocation.getAbsolutePath() + ":" + this.name;
+	}
+	
 	public Logger logger() {
 		return Metabuild.get().logger();
 	}
@@ -91,7 +336,15 @@ public class BuildTask {
 	
 	public void reset() {
 		this.state = null;
+		this.prepareTime = 0;
+		this.runTime = -1;
 		this.abortRequest = false;
+		if (this.abortSignal.isDone()) this.abortSignal = new CompletableFuture<>();
+		this.dependencyChanged = false;
+		this.outputsChanged = false;
+		this.snapshot = null;
+		this.inputChanges = null;
+		this.outputKey = null;
 	}
 	
 	public boolean didRun() {
@@ -104,10 +357,50 @@ public class BuildTask {
 	 * @return The current state of the task
 	 */
 	public TaskState state() {
-		if (this.state == null) this.state = prepare();
+		if (this.state == null) this.state = timedPrepare();
 		return this.state;
 	}
 	
+	private TaskState timedPrepare() {
+		this.inputFiles.clear();
+		this.inputScans.clear();
+		this.outputFiles.clear();
+		this.properties.clear();
+		this.snapshot = null;
+		this.inputChanges = null;
+		this.outputKey = null;
+		BuildEvents.TaskPrepare event = new BuildEvents.TaskPrepare();
+		event.begin();
+		TaskState state = null;
+		try (BuildTrace.Span span = BuildTrace.begin("prepare", fullName())) {
+			long start = System.nanoTime();
+			state = prepare();
+			this.prepareTime = System.nanoTime() - start;
+			span.arg("state", state);
+			return state;
+		} finally {
+			if (event.shouldCommit()) {
+				event.task = fullName();
+				event.state = String.valueOf(state);
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * @return The time in milliseconds the preparation of the task took to determine its state
+	 */
+	public long prepareTime() {
+		return TimeUnit.NANOSECONDS.toMillis(this.prepareTime);
+	}
+	
+	/**
+	 * @return The time in milliseconds the task took to run, or -1 if the task was up to date and did not run during the last execution
+	 */
+	public long runTime() {
+		return this.runTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(this.runTime);
+	}
+	
 	/**
 	 * Called before actual call to the run() method, to determine if the task needs to run at all, and if so, prepare itself for the execution.
 	 * @return The state of the task
@@ -124,22 +417,74 @@ public class BuildTask {
 	}
 	
 	/**
-	 * Runs a preparation and if necessary runs this task.
+	 * Called from the build system if an dependency of this task did run after this task was prepared.<br>
+	 * The results of the preparation might be outdated, so the preparation is repeated before this task runs.
+	 */
+	public void changedDependency() {
+		this.dependencyChanged = true;
+	}
+	
+	/**
+	 * @return true if this task or any of its (transitive) dependencies did run during the last execution, so the outputs might have changed
+	 */
+	public boolean changedOutputs() {
+		return this.outputsChanged;
+	}
+	
+	/**
+	 * Runs this task if necessary.<br>
+	 * The state and the work determined by the preparation during the planning of the build are reused.
+	 * The preparation is only repeated if an dependency did run since then.
 	 * @return true if and only if the task completed successfully
 	 */
 	public boolean runTask(Consumer<String> statusCallback) {
 		this.statusCallback = statusCallback;
-		if (!prepare().requiresBuild() && !Metabuild.get().isForceRunTasks()) {
-			this.state = TaskState.UPTODATE;
-			return true;
+		this.outputsChanged = this.dependencyChanged;
+		this.runTime = -1;
+		if (this.state == null || this.dependencyChanged) {
+			this.dependencyChanged = false;
+			this.state = timedPrepare();
 		}
-		if (this.statusCallback != null) statusCallback.accept("running");
-		if (run()) {
+		if (!this.state.requiresBuild() && !Metabuild.get().isForceRunTasks()) {
+			// the snapshot is only saved after an run, an outdated fingerprint must not be recorded as built
 			this.state = TaskState.UPTODATE;
 			return true;
-		} else {
-			this.state = TaskState.FAILED;
-			return false;
+		}
+		this.outputsChanged = true;
+		BuildEvents.TaskRun event = new BuildEvents.TaskRun();
+		event.begin();
+		String result = "failed";
+		try (BuildTrace.Span span = BuildTrace.begin("run", fullName())) {
+			long start = System.nanoTime();
+			if (!Metabuild.get().isForceRunTasks() && restoreOutputs()) {
+				if (this.statusCallback != null) statusCallback.accept("restored from cache");
+				this.runTime = System.nanoTime() - start;
+				result = "restored from cache";
+				span.arg("result", result);
+				saveSnapshot();
+				this.state = TaskState.UPTODATE;
+				return true;
+			}
+			if (this.statusCallback != null) statusCallback.accept("running");
+			boolean success = run();
+			this.runTime = System.nanoTime() - start;
+			if (success) result = "success";
+			span.arg("result", result);
+			if (success) {
+				storeOutputs();
+				saveSnapshot();
+				this.state = TaskState.UPTODATE;
+				return true;
+			} else {
+				this.state = TaskState.FAILED;
+				return false;
+			}
+		} finally {
+			if (event.shouldCommit()) {
+				event.task = fullName();
+				event.result = result;
+				event.commit();
+			}
 		}
 	}
 	
@@ -148,6 +493,7 @@ public class BuildTask {
 	 * @param status Status message to display
 	 */
 	protected void status(String status) {
+		BuildTrace.mark("status", status, "task", fullName());
 		if (this.statusCallback != null) this.statusCallback.accept(status);
 	}
 	
@@ -182,6 +528,7 @@ public class BuildTask {
 	
 	public void abortTask() {
 		this.abortRequest = true;
+		this.abortSignal.complete(null);
 		abort();
 	}
 	
@@ -189,6 +536,15 @@ public class BuildTask {
 		return this.abortRequest;
 	}
 	
+	/**
+	 * Returns an signal which completes as soon as an abort of this task is requested.<br>
+	 * Can be used to react to an abort request immediately instead of polling shouldAbort().
+	 * @return The abort signal
+	 */
+	protected CompletionStage<Void> abortSignal() {
+		return this.abortSignal;
+	}
+	
 	/**
 	 * The different states a task can have before and after execution
 	 */
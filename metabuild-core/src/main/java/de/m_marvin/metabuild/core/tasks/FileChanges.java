@@ -0,0 +1,76 @@
+package de.m_marvin.metabuild.core.tasks;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The changes of the input files of an task since its last successful run.<br>
+ * If the changes are not incremental, the previous state is unknown or invalid and all inputs have to be processed again.
+ */
+public class FileChanges {
+
+	public final Set<File> added = new HashSet<>();
+	public final Set<File> changed = new HashSet<>();
+	public final Set<File> removed = new HashSet<>();
+	/* false if there is no valid previous state to compare against, all current inputs are listed as added in this case */
+	private final boolean incremental;
+
+	public FileChanges(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @return An empty change set, meaning nothing has to be processed again
+	 */
+	public static FileChanges none() {
+		return new FileChanges(true);
+	}
+
+	/**
+	 * @return true if only the listed files have to be processed again, false if all inputs have to be processed again
+	 */
+	public boolean isIncremental() {
+		return this.incremental;
+	}
+
+	/**
+	 * @return true if no input changed and the previous state is valid
+	 */
+	public boolean isEmpty() {
+		return this.incremental && this.added.isEmpty() && this.changed.isEmpty() && this.removed.isEmpty();
+	}
+
+	/**
+	 * Checks if the changes can be processed incrementally by an task which only handles the files matching the filter.
+	 * @param filter The files the task can process incrementally
+	 * @return true if the changes are incremental and all added, changed and removed files match the filter
+	 */
+	public boolean isIncremental(Predicate<File> filter) {
+		return this.incremental && this.added.stream().allMatch(filter) && this.changed.stream().allMatch(filter) && this.removed.stream().allMatch(filter);
+	}
+
+	/**
+	 * @return true if the file was added or changed
+	 */
+	public boolean isModified(File file) {
+		return this.added.contains(file) || this.changed.contains(file);
+	}
+
+	/**
+	 * @return All files which were added or changed
+	 */
+	public Set<File> modified() {
+		Set<File> modified = new HashSet<>(this.added);
+		modified.addAll(this.changed);
+		return Collections.unmodifiableSet(modified);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("FileChanges{incremental=%b, added=%d, changed=%d, removed=%d}", this.incremental, this.added.size(), this.changed.size(), this.removed.size());
+	}
+
+}
@@ -1,8 +1,6 @@
 package de.m_marvin.metabuild.core.tasks;
 
 import java.io.File;
-import java.nio.file.attribute.FileTime;
-import java.util.Optional;
 
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.script.TaskType;
@@ -63,15 +61,10 @@ public class FileTask extends BuildTask {
 		
 		if (this.action == Action.COPY) {
 			File destFile = this.renameFile ? FileUtility.absolute(this.destination) : new File(FileUtility.absolute(this.destination), targetFile.getName());
-			long toReplace = FileUtility.deepList(targetFile).stream()
-					.filter(file -> {
-						File df = FileUtility.absolute(FileUtility.relative(file, targetFile), destFile);
-						Optional<FileTime> lasttime = FileUtility.timestamp(df);
-						Optional<FileTime> timestamp = FileUtility.timestamp(file);
-						return lasttime.isEmpty() || timestamp.isEmpty() || lasttime.get().compareTo(timestamp.get()) < 0;
-					})
-					.count();
-			return toReplace == 0 ? TaskState.UPTODATE : TaskState.OUTDATED;
+			inputs(targetFile);
+			outputs(destFile);
+			property("rename", this.renameFile);
+			return fingerprintState();
 		} else {
 			return !targetFile.exists() ? TaskState.UPTODATE : TaskState.OUTDATED;
 		}
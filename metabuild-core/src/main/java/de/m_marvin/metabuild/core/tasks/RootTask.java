@@ -4,11 +4,13 @@ import de.m_marvin.metabuild.core.script.TaskType;
 
 public class RootTask extends BuildTask {
 	
-	public static final RootTask TASK = new RootTask("root");
-	
-	private RootTask(String name) {
-		super(name);
+	/**
+	 * Creates the root task of an metabuild instance, it is not registered as normal task.
+	 */
+	public RootTask() {
+		super("root");
 		this.type = TaskType.named("ROOT");
+		this.resources.clear();
 	}
 	
 	@Override
@@ -0,0 +1,116 @@
+package de.m_marvin.metabuild.core.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the time the build tasks took to run in previous builds.<br>
+ * The durations are stored in an file in the cache directory and used to estimate the critical path of the next build.<br>
+ * Tasks are identified by the location of their build file and their name, since the cache directory is shared between projects.
+ */
+public class TaskDurations {
+
+	private final File durationsFile;
+	private final Map<String, Long> durations = new HashMap<>();
+	/* The run times recorded since the last save, merged into the current content of the file when saving */
+	private final Map<String, List<Long>> recorded = new HashMap<>();
+
+	public TaskDurations(File durationsFile) {
+		this.durationsFile = durationsFile;
+	}
+
+	/**
+	 * Loads the durations from the file, missing or malformed entries are ignored.
+	 * @return false if the file exists but could not be read
+	 */
+	public boolean load() {
+		this.durations.clear();
+		this.recorded.clear();
+		return read(this.durations);
+	}
+
+	private boolean read(Map<String, Long> durations) {
+		if (!this.durationsFile.isFile()) return true;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.durationsFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int i = line.lastIndexOf('=');
+				if (i == -1) continue;
+				try {
+					durations.put(line.substring(0, i), Long.parseLong(line.substring(i + 1).strip()));
+				} catch (NumberFormatException e) {}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the durations recorded since the last save to the file, if any.<br>
+	 * The file is shared with other builds using the same cache directory, it is read again and the recorded durations are merged into it.
+	 * It is written to an temporary file first and then moved in place, so other builds never read an partially written file.
+	 * @return false if the file could not be written
+	 */
+	public boolean save() {
+		if (this.recorded.isEmpty()) return true;
+		Map<String, Long> durations = new HashMap<>();
+		if (!read(durations)) return false;
+		this.recorded.forEach((key, runs) -> runs.forEach(duration -> durations.merge(key, duration, TaskDurations::average)));
+		File tempFile = null;
+		try {
+			if (!this.durationsFile.getParentFile().isDirectory() && !this.durationsFile.getParentFile().mkdirs()) return false;
+			tempFile = File.createTempFile(this.durationsFile.getName(), ".tmp", this.durationsFile.getParentFile());
+			try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				for (var entry : new TreeMap<>(durations).entrySet())
+					writer.println(entry.getKey() + "=" + entry.getValue());
+				if (writer.checkError()) return false;
+			}
+			Files.move(tempFile.toPath(), this.durationsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			this.durations.clear();
+			this.durations.putAll(durations);
+			this.recorded.clear();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (tempFile != null) tempFile.delete();
+		}
+	}
+
+	/**
+	 * @return The estimated run time of the task in milliseconds, or -1 if the task did never run before
+	 */
+	public long estimate(BuildTask task) {
+		return this.durations.getOrDefault(task.taskKey(), -1L);
+	}
+
+	/**
+	 * Records the run time of the task, it is averaged with the previous runs to smooth out outliers.
+	 * @param task The task that did run
+	 * @param duration The time in milliseconds the task took to run
+	 */
+	public void record(BuildTask task, long duration) {
+		this.durations.merge(task.taskKey(), duration, TaskDurations::average);
+		this.recorded.computeIfAbsent(task.taskKey(), k -> new ArrayList<>()).add(duration);
+	}
+
+	private static long average(long previous, long duration) {
+		return (previous + duration) / 2;
+	}
+
+}
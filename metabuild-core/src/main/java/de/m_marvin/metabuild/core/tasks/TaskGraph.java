@@ -0,0 +1,127 @@
+package de.m_marvin.metabuild.core.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The graph of build tasks that have to be executed for an build.<br>
+ * Tasks are addressed by an integer id, the ids are assigned in topological order, so every task has an higher id than all of its dependencies.<br>
+ * Tasks are compared by identity, the graph does not depend on the hashCode() or equals() implementations of the tasks.
+ */
+public final class TaskGraph {
+
+	private final BuildTask[] tasks;
+	private final int[][] dependencies;
+	private final int[][] dependents;
+	private final Map<BuildTask, Integer> task2id;
+
+	private TaskGraph(BuildTask[] tasks, int[][] dependencies, Map<BuildTask, Integer> task2id) {
+		this.tasks = tasks;
+		this.dependencies = dependencies;
+		this.task2id = task2id;
+
+		// invert dependency edges to get the dependents of each task
+		int[] dependentCount = new int[tasks.length];
+		for (int[] deps : dependencies)
+			for (int dep : deps) dependentCount[dep]++;
+		this.dependents = new int[tasks.length][];
+		for (int id = 0; id < tasks.length; id++)
+			this.dependents[id] = new int[dependentCount[id]];
+		for (int id = 0; id < tasks.length; id++)
+			for (int dep : dependencies[id]) this.dependents[dep][--dependentCount[dep]] = id;
+	}
+
+	/**
+	 * @return The number of tasks in this graph
+	 */
+	public int size() {
+		return this.tasks.length;
+	}
+
+	/**
+	 * @return The task with the id
+	 */
+	public BuildTask task(int id) {
+		return this.tasks[id];
+	}
+
+	/**
+	 * @return The id of the task or -1 if the task is not part of this graph
+	 */
+	public int idOf(BuildTask task) {
+		return this.task2id.getOrDefault(task, -1);
+	}
+
+	/**
+	 * @return The ids of the tasks which have to complete before the task with the id can run, the returned array must not be modified
+	 */
+	public int[] dependencies(int id) {
+		return this.dependencies[id];
+	}
+
+	/**
+	 * @return The ids of the tasks which require the task with the id to complete before they can run, the returned array must not be modified
+	 */
+	public int[] dependents(int id) {
+		return this.dependents[id];
+	}
+
+	/**
+	 * @return A new array containing the number of dependencies of each task, used as counters for scheduling the tasks
+	 */
+	public int[] inDegrees() {
+		int[] inDegrees = new int[this.tasks.length];
+		for (int id = 0; id < this.tasks.length; id++)
+			inDegrees[id] = this.dependencies[id].length;
+		return inDegrees;
+	}
+
+	/**
+	 * Builds an task graph, tasks have to be added after all of their dependencies.
+	 */
+	public static class Builder {
+
+		private final List<BuildTask> tasks = new ArrayList<>();
+		private final List<int[]> dependencies = new ArrayList<>();
+		private final Map<BuildTask, Integer> task2id = new IdentityHashMap<>();
+
+		/**
+		 * Adds an task to the graph.
+		 * @param task The task to add
+		 * @param dependencies The ids of the dependencies of the task, duplicates are ignored
+		 * @return The id assigned to the task
+		 */
+		public int add(BuildTask task, int[] dependencies) {
+			if (this.task2id.containsKey(task))
+				throw new IllegalStateException("task already added to graph: " + task.fullName());
+			int id = this.tasks.size();
+			int[] deps = Arrays.stream(dependencies).sorted().distinct().toArray();
+			for (int dep : deps)
+				if (dep < 0 || dep >= id) throw new IllegalArgumentException("dependency not yet added to graph: " + dep);
+			this.tasks.add(task);
+			this.dependencies.add(deps);
+			this.task2id.put(task, id);
+			return id;
+		}
+
+		/**
+		 * @return The id of the task or -1 if it was not yet added
+		 */
+		public int idOf(BuildTask task) {
+			return this.task2id.getOrDefault(task, -1);
+		}
+
+		public int size() {
+			return this.tasks.size();
+		}
+
+		public TaskGraph build() {
+			return new TaskGraph(this.tasks.toArray(BuildTask[]::new), this.dependencies.toArray(int[][]::new), new IdentityHashMap<>(this.task2id));
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package de.m_marvin.metabuild.core.tasks;
+
+/**
+ * The resources an build task can claim while it runs.<br>
+ * The build system only starts an task if enough of each resource is left in the configured pools.
+ */
+public enum TaskResource {
+
+	/* Number of processor cores */
+	CPU("cpu"),
+	/* Memory in megabytes */
+	MEMORY("mem"),
+	/* Number of concurrent disk heavy operations */
+	IO("io"),
+	/* Number of concurrent network connections */
+	NETWORK("net");
+
+	private final String name;
+
+	private TaskResource(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The resource with the name or null if no such resource exists
+	 */
+	public static TaskResource named(String name) {
+		for (TaskResource resource : values())
+			if (resource.name.equalsIgnoreCase(name)) return resource;
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+}
@@ -0,0 +1,229 @@
+package de.m_marvin.metabuild.core.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import de.m_marvin.metabuild.core.exception.BuildException;
+import de.m_marvin.metabuild.core.util.FileTree;
+import de.m_marvin.metabuild.core.util.FileUtility;
+import de.m_marvin.metabuild.core.util.HashUtility;
+
+/**
+ * The fingerprints of the declared inputs, outputs and properties of an task after its last successful run.<br>
+ * The snapshots are stored in the cache directory, one file per task.<br>
+ * Files are compared by size and modification time first, the content is only hashed again if one of them has changed.
+ */
+public class TaskSnapshot {
+
+	public static final String SNAPSHOT_DIRECTORY = "snapshots";
+	public static final String SNAPSHOT_HEADER = "metabuild-snapshot 1";
+
+	/* Size, modification time and content hash of an file */
+	public static record Fingerprint(long size, long modified, String hash) { }
+
+	private final Map<String, String> properties = new TreeMap<>();
+	private final Map<File, Fingerprint> inputs = new HashMap<>();
+	private final Map<File, Fingerprint> outputs = new HashMap<>();
+	/* Set if any file had to be hashed again because its size or modification time changed */
+	private boolean rehashed = false;
+
+	private TaskSnapshot() {}
+
+	/**
+	 * @return The file the snapshot of the task is stored in
+	 */
+	public static File snapshotFile(File cacheDir, BuildTask task) {
+		return new File(cacheDir, SNAPSHOT_DIRECTORY + "/" + HashUtility.hash(task.taskKey()) + ".snapshot");
+	}
+
+	/**
+	 * Takes an snapshot of the current state of the properties and the input files.
+	 * @param properties The properties of the task
+	 * @param inputs The absolute input files and directories of the task, directories are scanned for files
+	 * @param scans The input files and directories which were already scanned and the files found, they are not scanned again
+	 * @param previous The previous snapshot to reuse the hashes of unchanged files from, can be null
+	 * @return The new snapshot
+	 */
+	public static TaskSnapshot take(Map<String, String> properties, Collection<File> inputs, Map<File, List<FileTree.Entry>> scans, TaskSnapshot previous) {
+		TaskSnapshot snapshot = new TaskSnapshot();
+		properties.forEach((key, value) -> snapshot.properties.put(key, HashUtility.hash(value)));
+		snapshot.rehashed |= fingerprint(inputs, scans, previous == null ? null : previous.inputs, snapshot.inputs);
+		return snapshot;
+	}
+
+	/**
+	 * Updates the fingerprints of the output files, should be called after the task did run.
+	 * @param outputs The absolute output files and directories of the task, directories are scanned for files
+	 * @param previous The previous snapshot to reuse the hashes of unchanged files from, can be null
+	 */
+	public void takeOutputs(Collection<File> outputs, TaskSnapshot previous) {
+		this.outputs.clear();
+		this.rehashed |= fingerprint(outputs, Collections.emptyMap(), previous == null ? null : previous.outputs, this.outputs);
+	}
+
+	private static boolean fingerprint(Collection<File> files, Map<File, List<FileTree.Entry>> scans, Map<File, Fingerprint> previous, Map<File, Fingerprint> fingerprints) {
+		boolean rehashed = false;
+		for (File file : files) {
+			List<FileTree.Entry> entries = scans.get(file);
+			if (entries == null) entries = FileTree.scan(file, FileTree.Entry::isFile);
+			for (FileTree.Entry entry : entries) {
+				if (!entry.isFile()) continue;
+				File path = entry.file();
+				Fingerprint last = previous == null ? null : previous.get(path);
+				if (last != null && last.size() == entry.size() && last.modified() == entry.modified()) {
+					fingerprints.put(path, last);
+				} else {
+					try {
+						fingerprints.put(path, new Fingerprint(entry.size(), entry.modified(), HashUtility.hash(path)));
+						rehashed = true;
+					} catch (IOException e) {
+						throw BuildException.msg(e, "unable to fingerprint file: %s", path);
+					}
+				}
+			}
+		}
+		return rehashed;
+	}
+
+	/**
+	 * Compares this snapshot against the previous one.<br>
+	 * The fingerprints of the output files are taken to detect outputs which were modified or deleted since the last run.
+	 * If there is no previous snapshot, the properties differ or the outputs have been modified, the changes are not incremental.
+	 * @param previous The snapshot of the last successful run, can be null
+	 * @param outputs The output files and directories of the task
+	 * @return The changes of the input files
+	 */
+	public FileChanges compare(TaskSnapshot previous, Collection<File> outputs) {
+
+		takeOutputs(outputs, previous);
+
+		if (previous == null || !this.properties.equals(previous.properties) || !sameContent(this.outputs, previous.outputs)) {
+			FileChanges changes = new FileChanges(false);
+			changes.added.addAll(this.inputs.keySet());
+			return changes;
+		}
+
+		FileChanges changes = new FileChanges(true);
+		for (var entry : this.inputs.entrySet()) {
+			Fingerprint last = previous.inputs.get(entry.getKey());
+			if (last == null) {
+				changes.added.add(entry.getKey());
+			} else if (!last.hash().equals(entry.getValue().hash())) {
+				changes.changed.add(entry.getKey());
+			}
+		}
+		for (File file : previous.inputs.keySet()) {
+			if (!this.inputs.containsKey(file)) changes.removed.add(file);
+		}
+		return changes;
+
+	}
+
+	/**
+	 * Computes the key for the outputs of the task in the build cache.<br>
+	 * The key covers the implementation, the properties, the content of the inputs and the location of the outputs.
+	 * Paths inside of the base directory are used relative to it, so the same project in an different location produces the same keys.
+	 * The key is an SHA-256 hash, since it is also used to share the outputs over the remote cache.
+	 * @param implementation An string identifying the task implementation and its version
+	 * @param base The absolute base directory of the task
+	 * @param outputs The absolute output files and directories of the task
+	 * @return The cache key
+	 */
+	public String outputKey(String implementation, File base, Collection<File> outputs) {
+		StringBuilder key = new StringBuilder(implementation).append('\n');
+		this.properties.forEach((name, value) -> key.append("P ").append(name).append('=').append(value).append('\n'));
+		new TreeMap<>(this.inputs).forEach((path, f) -> key.append("I ").append(relativePath(path, base)).append('=').append(f.hash()).append('\n'));
+		outputs.stream().map(path -> relativePath(path, base)).sorted().forEach(path -> key.append("O ").append(path).append('\n'));
+		return HashUtility.secureHash(key.toString());
+	}
+	
+	private static String relativePath(File path, File base) {
+		if (path.toPath().startsWith(base.toPath())) return FileUtility.relative(path, base).getPath().replace('\\', '/');
+		return path.getPath().replace('\\', '/');
+	}
+
+	private static boolean sameContent(Map<File, Fingerprint> a, Map<File, Fingerprint> b) {
+		if (!a.keySet().equals(b.keySet())) return false;
+		for (var entry : a.entrySet()) {
+			if (!Objects.equals(entry.getValue().hash(), b.get(entry.getKey()).hash())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if any file had to be hashed again, the snapshot should be saved even if nothing has changed to keep the fast path valid
+	 */
+	public boolean isRehashed() {
+		return this.rehashed;
+	}
+
+	/**
+	 * Loads an snapshot from the file.
+	 * @return The snapshot or null if the file does not exist or is malformed
+	 */
+	public static TaskSnapshot load(File file) {
+		if (!file.isFile()) return null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			if (!SNAPSHOT_HEADER.equals(reader.readLine())) return null;
+			TaskSnapshot snapshot = new TaskSnapshot();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 5);
+				switch (fields[0]) {
+				case "P":
+					if (fields.length != 3) return null;
+					snapshot.properties.put(fields[1], fields[2]);
+					break;
+				case "I":
+				case "O":
+					if (fields.length != 5) return null;
+					Fingerprint fingerprint = new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+					(fields[0].equals("I") ? snapshot.inputs : snapshot.outputs).put(new File(fields[4]), fingerprint);
+					break;
+				default:
+					return null;
+				}
+			}
+			return snapshot;
+		} catch (IOException | NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the file, the file is replaced completely or not at all.
+	 * @return false if the file could not be written
+	 */
+	public boolean save(File file) {
+		if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) return false;
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+			writer.println(SNAPSHOT_HEADER);
+			this.properties.forEach((key, value) -> writer.println("P\t" + key + "\t" + value));
+			this.inputs.forEach((path, f) -> writer.println("I\t" + f.size() + "\t" + f.modified() + "\t" + f.hash() + "\t" + path));
+			this.outputs.forEach((path, f) -> writer.println("O\t" + f.size() + "\t" + f.modified() + "\t" + f.hash() + "\t" + path));
+			if (writer.checkError()) return false;
+		} catch (IOException e) {
+			return false;
+		}
+		file.delete();
+		if (!tempFile.renameTo(file)) return false;
+		this.rehashed = false;
+		return true;
+	}
+
+}
@@ -5,12 +5,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -68,32 +67,33 @@ public class UnZipTask extends BuildTask {
 		Collection<File> archiveFiles = FileUtility.parseFilePaths(this.archives);
 		if (archiveFiles.isEmpty()) return TaskState.UPTODATE;
 		
+		List<File> sources = new ArrayList<File>();
 		for (File archiveFile : archiveFiles) {
 			
 			if (!FileUtility.isArchive(archiveFile) && !this.passtroughNonArchive) continue;
 			if (archiveFile.isDirectory() && !this.passtroughFolders) continue;
-			Optional<FileTime> timestamp = archiveFile.isFile() ? FileUtility.timestamp(archiveFile) : FileUtility.timestampDir(archiveFile);
+			sources.add(archiveFile);
 			
-			boolean missing = false;
-			FileTime outputTimetstamp = null;
 			for (File file : getOutputs(archiveFile)) {
-				File outFile = FileUtility.absolute(file);
-				filesExpected.add(outFile);
-				Optional<FileTime> outTime = FileUtility.timestamp(outFile);
-				if (outTime.isEmpty()) {
-					missing = true;
-					continue;
-				}
-				if (outputTimetstamp == null || outputTimetstamp.compareTo(outTime.get()) > 0)
-					outputTimetstamp = outTime.get();
+				this.filesExpected.add(FileUtility.absolute(file));
 			}
 			
-			boolean outdated = missing || timestamp.isEmpty() || (outputTimetstamp != null && outputTimetstamp.compareTo(timestamp.get()) < 0);
-			if (outdated) this.toExtract.add(archiveFile);
-			
 		}
 		
-		return this.toExtract.isEmpty() ? TaskState.UPTODATE : TaskState.OUTDATED;
+		inputs(sources);
+		outputs(this.filesExpected);
+		property("deleteUnexpectedFiles", this.deleteUnexpectedFiles);
+		if (fingerprintState() == TaskState.UPTODATE) return TaskState.UPTODATE;
+		
+		// Only extract the archives which have changed, unless the outputs have to be restored completely
+		FileChanges changes = inputChanges();
+		Set<File> modified = changes.modified();
+		for (File archiveFile : sources) {
+			if (!changes.isIncremental() || modified.stream().anyMatch(f -> FileUtility.isIn(f, archiveFile)))
+				this.toExtract.add(archiveFile);
+		}
+		
+		return TaskState.OUTDATED;
 		
 	}
 	
@@ -6,12 +6,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -21,6 +22,7 @@ import java.util.zip.ZipOutputStream;
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.exception.BuildScriptException;
 import de.m_marvin.metabuild.core.script.TaskType;
+import de.m_marvin.metabuild.core.util.FileTree;
 import de.m_marvin.metabuild.core.util.FileUtility;
 
 public class ZipTask extends BuildTask {
@@ -128,7 +130,8 @@ public class ZipTask extends BuildTask {
 				}
 			} else {
 				try {
-					for (File archiveFile : FileUtility.deepList(includeFile, f -> f.isFile() && this.includePredicate.test(f))) {
+					for (FileTree.Entry includeEntry : FileTree.scan(includeFile, e -> e.isFile() && this.includePredicate.test(e.file()))) {
+						File archiveFile = includeEntry.file();
 						File loc = FileUtility.relative(archiveFile.getParentFile(), includeFile);
 						status("include > " + loc + " - " + archiveFile);
 						if (!archiveFile(zstream, loc.toString(), archiveFile)) {
@@ -150,49 +153,44 @@ public class ZipTask extends BuildTask {
 	@Override
 	public TaskState prepare() {
 		
-		File archiveFile = FileUtility.absolute(this.archive);
-		Optional<FileTime> lasttime = FileUtility.timestamp(archiveFile);
-		Optional<FileTime> timestamp = Optional.empty();
-		
-		// Get files to archive and determine timestamp
+		// Get files to archive
 		this.toArchive = new HashMap<>();
+		List<FileTree.Entry> archiveEntries = new ArrayList<>();
 		for (var entry : this.entries.entrySet()) {
 			if (entry.getKey() == null || entry.getValue() == null)
 				throw BuildScriptException.msg("no null entries allowed in ZipTask: %s - %s", entry.getKey(), entry.getValue());
 			File eloc = new File(entry.getValue());
 			File oloc = FileUtility.absolute(entry.getKey());
 			
-			for (File file : FileUtility.deepList(oloc, f -> f.isFile() && this.entryPredicate.test(f))) {
-
-				Optional<FileTime> filetime = FileUtility.timestamp(file);
-				if (timestamp.isEmpty() || filetime.isEmpty() || timestamp.get().compareTo(filetime.get()) < 0)
-					timestamp = filetime;
+			for (FileTree.Entry archiveEntry : FileTree.scan(oloc, e -> e.isFile() && this.entryPredicate.test(e.file()))) {
 				
+				File file = archiveEntry.file();
 				File floc = FileUtility.concat(eloc, FileUtility.relative(file, oloc));
 				String ename = floc.getPath().replace('\\', '/');
 				if (ename.startsWith("/")) ename = ename.substring(1);
 				
 				this.toArchive.put(file, ename);
+				archiveEntries.add(archiveEntry);
 				
 			}
 		}
 		
-		// Get archives and directories to include and determine timestamp
+		// Get archives and directories to include
 		this.toInclude = new HashSet<>();
 		if (this.includes.contains(null))
 			throw BuildScriptException.msg("no null entries allowed in ZipTask includes");
 		for (File file : FileUtility.parseFilePaths(this.includes)) {
 			if (!this.includePredicate.test(file)) continue;
-			for (File file1 : FileUtility.deepList(file, f -> f.isFile())) {
-				Optional<FileTime> filetime = FileUtility.timestamp(file1);
-				if (timestamp.isEmpty() || filetime.isEmpty() || timestamp.get().compareTo(filetime.get()) < 0)
-					timestamp = filetime;
-			}
 			this.toInclude.add(file);
 		}
 		
-		boolean outdatedFiles = lasttime.isEmpty() || !timestamp.isEmpty() && timestamp.get().compareTo(lasttime.get()) > 0;
-		return outdatedFiles ? TaskState.OUTDATED : TaskState.UPTODATE;
+		inputEntries(archiveEntries);
+		inputs(this.toInclude);
+		outputs(FileUtility.absolute(this.archive));
+		Map<String, String> entryNames = new TreeMap<>();
+		this.toArchive.forEach((file, ename) -> entryNames.put(ename, file.getPath()));
+		property("entries", entryNames);
+		return fingerprintState();
 	}
 	
 	@Override
@@ -0,0 +1,116 @@
+package de.m_marvin.metabuild.core.util;
+
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * Java Flight Recorder events emitted by the build system, they can be correlated with GC and I/O events in JDK Mission Control.<br>
+ * The events cost almost nothing if no recording is running, the fields are only filled if shouldCommit() returns true.
+ * An recording can be started with -XX:StartFlightRecording, the daemon records them by default.
+ */
+public final class BuildEvents {
+
+	public static final String RECORDING_NAME = "metabuild";
+	public static final Duration RECORDING_MAX_AGE = Duration.ofHours(1);
+
+	/* All event types, enabled in the recording of the daemon */
+	public static final List<Class<? extends Event>> EVENT_TYPES = List.of(TaskPrepare.class, TaskRun.class, ProcessSpawn.class, ArtifactDownload.class, ScriptCompile.class, FileTreeScan.class);
+
+	private BuildEvents() {}
+
+	/**
+	 * Starts an recording of all metabuild events, which keeps the events of the last hour.<br>
+	 * The recording can be dumped with "jcmd [pid] JFR.dump name=metabuild filename=[file]".
+	 * @return The started recording
+	 */
+	public static Recording startRecording() {
+		Recording recording = new Recording();
+		recording.setName(RECORDING_NAME);
+		recording.setMaxAge(RECORDING_MAX_AGE);
+		recording.setToDisk(true);
+		for (Class<? extends Event> eventType : EVENT_TYPES)
+			recording.enable(eventType).withoutThreshold();
+		recording.start();
+		return recording;
+	}
+
+	@Name("metabuild.TaskPrepare")
+	@Label("Task Prepare")
+	@Category("Metabuild")
+	@Description("Preparation of an task to determine its state")
+	public static class TaskPrepare extends Event {
+		@Label("Task")
+		public String task;
+		@Label("State")
+		public String state;
+	}
+
+	@Name("metabuild.TaskRun")
+	@Label("Task Run")
+	@Category("Metabuild")
+	@Description("Execution of an task, or the restore of its outputs from the build cache")
+	public static class TaskRun extends Event {
+		@Label("Task")
+		public String task;
+		@Label("Result")
+		public String result;
+	}
+
+	@Name("metabuild.ProcessSpawn")
+	@Label("Process Spawn")
+	@Category("Metabuild")
+	@Description("Lifetime of an child process started by an task")
+	public static class ProcessSpawn extends Event {
+		@Label("Command")
+		public String command;
+		@Label("Process Id")
+		public long pid;
+		@Label("Exit Code")
+		public int exitCode;
+	}
+
+	@Name("metabuild.ArtifactDownload")
+	@Label("Artifact Download")
+	@Category("Metabuild")
+	@Description("Download of an artifact or its metadata from an maven repository")
+	public static class ArtifactDownload extends Event {
+		@Label("Artifact")
+		public String artifact;
+		@Label("Repository")
+		public String repository;
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("metabuild.ScriptCompile")
+	@Label("Script Compile")
+	@Category("Metabuild")
+	@Description("Compilation of an build file")
+	public static class ScriptCompile extends Event {
+		@Label("Build File")
+		public String buildFile;
+		@Label("Success")
+		public boolean success;
+	}
+
+	@Name("metabuild.FileTreeScan")
+	@Label("File Tree Scan")
+	@Category("Metabuild")
+	@Description("Recursive listing of an directory")
+	public static class FileTreeScan extends Event {
+		@Label("Path")
+		public String path;
+		@Label("File Count")
+		public int fileCount;
+	}
+
+}
@@ -0,0 +1,242 @@
+package de.m_marvin.metabuild.core.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.m_marvin.metabuild.core.Metabuild;
+
+/**
+ * Records the timeline of an build in the Chrome trace event format, which can be opened in chrome://tracing or the Perfetto UI.<br>
+ * Spans are recorded on the thread which executed them, the build phases are recorded on an separate track.
+ * The events are only serialized into memory while the build runs, the file is written once at the end.
+ */
+public class BuildTrace {
+
+	/* Thread id of the track the build phases are recorded on */
+	public static final long PHASE_TRACK = 0;
+
+	/* Span which records nothing, returned if no trace is active */
+	private static final Span NONE = new Span(null, null, null, 0, 0);
+
+	private final long startTime = System.nanoTime();
+	private final long pid = ProcessHandle.current().pid();
+	private final Queue<String> events = new ConcurrentLinkedQueue<>();
+	private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+	/* The currently open build phase and when it began */
+	private String phase;
+	private long phaseStart;
+
+	public BuildTrace() {
+		this.threadNames.put(PHASE_TRACK, "Build Phases");
+	}
+
+	/**
+	 * @return The trace of the build the current thread works for, or null if no trace is recorded
+	 */
+	public static BuildTrace active() {
+		Metabuild mb = Metabuild.find();
+		return mb == null ? null : mb.buildTrace();
+	}
+
+	/**
+	 * Begins an span on the current thread in the trace of the current build, which ends when it is closed.
+	 * @param category The category of the span, e.g. task, process or download
+	 * @param name The name of the span
+	 * @return The span, which does nothing if no trace is recorded
+	 */
+	public static Span begin(String category, String name) {
+		BuildTrace trace = active();
+		return trace == null ? NONE : trace.span(category, name);
+	}
+
+	/**
+	 * Records an instant event on the current thread in the trace of the current build, if one is recorded.
+	 * @param category The category of the event
+	 * @param name The name of the event
+	 * @param args Alternating argument names and values
+	 */
+	public static void mark(String category, String name, Object... args) {
+		BuildTrace trace = active();
+		if (trace != null) trace.instant(category, name, args);
+	}
+
+	/**
+	 * @return The time in microseconds since the trace was started
+	 */
+	public long timestamp() {
+		return (System.nanoTime() - this.startTime) / 1000;
+	}
+
+	private long currentThread() {
+		Thread thread = Thread.currentThread();
+		long tid = thread.getId();
+		if (tid == PHASE_TRACK) tid = Long.MAX_VALUE;
+		this.threadNames.computeIfAbsent(tid, id -> thread.getName().isEmpty() ? "Thread-" + id : thread.getName());
+		return tid;
+	}
+
+	/**
+	 * Begins an span on the current thread.
+	 * @param category The category of the span, e.g. task, process or download
+	 * @param name The name of the span
+	 * @return The span, which is recorded when it is closed
+	 */
+	public Span span(String category, String name) {
+		return new Span(this, category, name, currentThread(), timestamp());
+	}
+
+	/**
+	 * Records an instant event on the current thread.
+	 * @param category The category of the event
+	 * @param name The name of the event
+	 * @param args Alternating argument names and values
+	 */
+	public void instant(String category, String name, Object... args) {
+		StringBuilder event = event("i", category, name, currentThread(), timestamp());
+		event.append(",\"s\":\"t\"");
+		appendArgs(event, args);
+		this.events.add(event.append('}').toString());
+	}
+
+	/**
+	 * Ends the current build phase and begins the next one on the phase track.
+	 * @param name The name of the next phase, or null to only end the current one
+	 */
+	public synchronized void phase(String name) {
+		long now = timestamp();
+		if (this.phase != null)
+			complete("phase", this.phase, PHASE_TRACK, this.phaseStart, now - this.phaseStart);
+		this.phase = name;
+		this.phaseStart = now;
+	}
+
+	private void complete(String category, String name, long tid, long start, long duration, Object... args) {
+		StringBuilder event = event("X", category, name, tid, start);
+		event.append(",\"dur\":").append(duration);
+		appendArgs(event, args);
+		this.events.add(event.append('}').toString());
+	}
+
+	private StringBuilder event(String type, String category, String name, long tid, long timestamp) {
+		StringBuilder event = new StringBuilder("{\"ph\":\"").append(type).append("\",\"cat\":");
+		appendString(event, category);
+		event.append(",\"name\":");
+		appendString(event, name);
+		return event.append(",\"pid\":").append(this.pid).append(",\"tid\":").append(tid).append(",\"ts\":").append(timestamp);
+	}
+
+	private static void appendArgs(StringBuilder event, Object[] args) {
+		if (args.length < 2) return;
+		event.append(",\"args\":{");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (i > 0) event.append(',');
+			appendString(event, String.valueOf(args[i]));
+			event.append(':');
+			if (args[i + 1] instanceof Number number) {
+				event.append(number);
+			} else {
+				appendString(event, String.valueOf(args[i + 1]));
+			}
+		}
+		event.append('}');
+	}
+
+	private static void appendString(StringBuilder json, String str) {
+		json.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"': json.append("\\\""); break;
+			case '\\': json.append("\\\\"); break;
+			case '\n': json.append("\\n"); break;
+			case '\r': json.append("\\r"); break;
+			case '\t': json.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Ends the current build phase and writes all recorded events to the file.
+	 * @param file The file to write the trace to
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		phase(null);
+		if (file.getParentFile() != null) file.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+			StringBuilder meta = new StringBuilder();
+			for (var thread : this.threadNames.entrySet()) {
+				meta.setLength(0);
+				meta.append("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":").append(this.pid).append(",\"tid\":").append(thread.getKey()).append(",\"args\":{\"name\":");
+				appendString(meta, thread.getValue());
+				writer.write(meta.append("}},\n").toString());
+			}
+			boolean first = true;
+			for (String event : this.events) {
+				if (!first) writer.write(",\n");
+				writer.write(event);
+				first = false;
+			}
+			writer.write("\n]}\n");
+		}
+	}
+
+	/**
+	 * An span on the timeline, which is recorded as complete event when it is closed.
+	 */
+	public static class Span implements AutoCloseable {
+
+		private final BuildTrace trace;
+		private final String category;
+		private final String name;
+		private final long tid;
+		private final long start;
+		private Object[] args = new Object[0];
+
+		private Span(BuildTrace trace, String category, String name, long tid, long start) {
+			this.trace = trace;
+			this.category = category;
+			this.name = name;
+			this.tid = tid;
+			this.start = start;
+		}
+
+		/**
+		 * Adds an argument which is shown with the span.
+		 * @return This span
+		 */
+		public Span arg(String name, Object value) {
+			if (this.trace == null) return this;
+			Object[] args = new Object[this.args.length + 2];
+			System.arraycopy(this.args, 0, args, 0, this.args.length);
+			args[this.args.length] = name;
+			args[this.args.length + 1] = value;
+			this.args = args;
+			return this;
+		}
+
+		@Override
+		public void close() {
+			if (this.trace == null) return;
+			this.trace.complete(this.category, this.name, this.tid, this.start, this.trace.timestamp() - this.start, this.args);
+		}
+
+	}
+
+}
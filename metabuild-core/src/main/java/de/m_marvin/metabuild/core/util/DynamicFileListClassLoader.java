@@ -3,20 +3,45 @@ package de.m_marvin.metabuild.core.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.security.Principal;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+/**
+ * Loads classes and resources from an list of jar files, which can be extended while the loader is in use.<br>
+ * The packages contained in each jar are indexed, so an class or resource is only looked up in the jars which contain its package.
+ * Jars are indexed on the first lookup after they were added, adding an jar does not open it.
+ * If the packages of an jar are passed when adding it, it is only opened once an class or resource of these packages is requested.
+ */
 public class DynamicFileListClassLoader extends ClassLoader {
 	
+	static {
+		registerAsParallelCapable();
+	}
+	
 	private final ClassLoader parentLoader;
-	private final Map<File, JarFile> files = new HashMap<File, JarFile>();;
+	/* The jar files in the order they were added, and their opened jar or null if not opened */
+	private final Map<File, JarFile> files = new LinkedHashMap<File, JarFile>();
+	/* The jars containing each package, packages are separated by '/' like the entry names */
+	private final Map<String, List<File>> packageIndex = new HashMap<String, List<File>>();
+	/* The jars added but not yet indexed */
+	private final Set<File> unindexed = new LinkedHashSet<File>();
 	
 	public DynamicFileListClassLoader(ClassLoader parent) {
 		this(parent, null);
@@ -25,55 +50,154 @@ public class DynamicFileListClassLoader extends ClassLoader {
 	public DynamicFileListClassLoader(ClassLoader parent, Collection<File> files) {
 		this.parentLoader = parent;
 		if (files != null)
-			files.forEach(f -> this.files.put(f, null));
+			files.forEach(this::addFile);
 	}
 	
 	public void addFile(File file) {
-		this.files.put(file, null);
+		addFile(file, null);
+	}
+	
+	/**
+	 * Adds an jar file of which the packages are already known, the jar is not opened before an class or resource of these packages is requested.
+	 * @param file The jar file
+	 * @param packages The packages in the jar, separated by '/' like the entry names, or null if unknown
+	 */
+	public void addFile(File file, Collection<String> packages) {
+		synchronized (this.files) {
+			if (this.files.containsKey(file)) return;
+			this.files.put(file, null);
+			if (packages == null) {
+				this.unindexed.add(file);
+			} else {
+				for (String p : packages)
+					this.packageIndex.computeIfAbsent(p, k -> new ArrayList<File>()).add(file);
+			}
+		}
 	}
 	
 	public Collection<File> getFiles() {
-		return this.files.keySet();
+		synchronized (this.files) {
+			return new ArrayList<File>(this.files.keySet());
+		}
 	}
 	
 	public void close() throws IOException {
 		IOException ex = new IOException("one ore more files could not be closed");
-		for (JarFile jar : this.files.values()) {
-			try {
-				if (jar != null) jar.close();
-			} catch (IOException e) {
-				ex.addSuppressed(e);
+		synchronized (this.files) {
+			for (JarFile jar : this.files.values()) {
+				try {
+					if (jar != null) jar.close();
+				} catch (IOException e) {
+					ex.addSuppressed(e);
+				}
 			}
+			// closed files are opened again when the next class is loaded from them
+			this.files.replaceAll((file, jar) -> null);
 		}
 		if (ex.getSuppressed().length > 0) throw ex;
 	}
-
+	
+	/**
+	 * Opens the jar file if it is not yet open, must be called while holding the lock on the file list.
+	 */
+	private JarFile openJar(File file) throws IOException {
+		JarFile jar = this.files.get(file);
+		if (jar == null) {
+			jar = new JarFile(file);
+			this.files.put(file, jar);
+		}
+		return jar;
+	}
+	
+	/**
+	 * Returns the opened jars which contain entries in the package of the entry, indexes the jars added since the last lookup first.
+	 * @param entryName The name of the class file or resource
+	 * @return The jars and their files which might contain the entry, in the order they were added
+	 */
+	private Map<File, JarFile> lookup(String entryName) {
+		int separator = entryName.lastIndexOf('/');
+		String packageName = separator < 0 ? "" : entryName.substring(0, separator);
+		synchronized (this.files) {
+			for (File file : this.unindexed) {
+				try {
+					JarFile jar = openJar(file);
+					Set<String> packages = new LinkedHashSet<String>();
+					jar.stream().filter(e -> !e.isDirectory()).forEach(e -> {
+						int s = e.getName().lastIndexOf('/');
+						packages.add(s < 0 ? "" : e.getName().substring(0, s));
+					});
+					for (String p : packages)
+						this.packageIndex.computeIfAbsent(p, k -> new ArrayList<File>()).add(file);
+				} catch (IOException e) {
+					// not an valid jar, nothing can be loaded from it
+				}
+			}
+			this.unindexed.clear();
+			
+			List<File> candidates = this.packageIndex.get(packageName);
+			if (candidates == null) return Collections.emptyMap();
+			Map<File, JarFile> jars = new LinkedHashMap<File, JarFile>();
+			for (File file : candidates) {
+				try {
+					jars.put(file, openJar(file));
+				} catch (IOException e) {}
+			}
+			return jars;
+		}
+	}
+	
+	private static URL entryURL(File file, String entryName) throws MalformedURLException {
+		return URI.create("jar:" + file.toURI() + "!/" + entryName).toURL();
+	}
+	
 	@Override
 	protected Class<?> findClass(String name) throws ClassNotFoundException {
 		
+		String entryName = name.replace('.', '/') + ".class";
 		try {
-			for (File file : this.files.keySet()) {
-				JarFile jar = this.files.get(file);
-				if (jar == null) {
-					jar = new JarFile(file);
-					this.files.put(file, jar);
-				}
-				
-				JarEntry entry = jar.getJarEntry(name.replace('.', '/') + ".class");
+			for (var jar : lookup(entryName).entrySet()) {
+				JarEntry entry = jar.getValue().getJarEntry(entryName);
 				if (entry == null) continue;
 				
-				InputStream classStream = jar.getInputStream(entry);
+				InputStream classStream = jar.getValue().getInputStream(entry);
 				byte[] classBytes = classStream.readAllBytes();
 				classStream.close();
-				CodeSource codeSource = new CodeSource(file.toURI().toURL(), entry.getCodeSigners());
+				CodeSource codeSource = new CodeSource(jar.getKey().toURI().toURL(), entry.getCodeSigners());
 				PermissionCollection permissions = this.getClass().getProtectionDomain().getPermissions();
 				ProtectionDomain domain = new ProtectionDomain(codeSource, permissions, this, new Principal[0]);
 				return defineClass(name, classBytes, 0, classBytes.length, domain);
 			}
 		} catch (IOException e) {}
-
+		
 		return this.parentLoader.loadClass(name);
 		
 	}
 	
+	@Override
+	protected URL findResource(String name) {
+		
+		try {
+			for (var jar : lookup(name).entrySet()) {
+				if (jar.getValue().getJarEntry(name) != null) return entryURL(jar.getKey(), name);
+			}
+		} catch (MalformedURLException e) {}
+		
+		// the parent loader of this class loader is always queried before, only query the actual parent if it is a different one
+		return this.parentLoader != getParent() ? this.parentLoader.getResource(name) : null;
+		
+	}
+	
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		
+		List<URL> resources = new ArrayList<URL>();
+		for (var jar : lookup(name).entrySet()) {
+			if (jar.getValue().getJarEntry(name) != null) resources.add(entryURL(jar.getKey(), name));
+		}
+		if (this.parentLoader != getParent())
+			resources.addAll(Collections.list(this.parentLoader.getResources(name)));
+		return Collections.enumeration(resources);
+		
+	}
+	
 }
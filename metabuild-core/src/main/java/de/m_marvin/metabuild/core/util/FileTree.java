@@ -0,0 +1,146 @@
+package de.m_marvin.metabuild.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Scans directory trees and reads the attributes of each file in the same pass, so callers never have to query the file system again for them.<br>
+ * Sub directories are scanned in parallel on the common fork join pool.
+ * The entries of each directory are ordered by name, so the result does not depend on the file system or the scheduling.
+ */
+public class FileTree {
+
+	/**
+	 * An file found by an scan and its attributes, symbolic links are followed.
+	 */
+	public static record Entry(File file, BasicFileAttributes attributes) {
+
+		public boolean isFile() {
+			return this.attributes.isRegularFile();
+		}
+
+		public boolean isDirectory() {
+			return this.attributes.isDirectory();
+		}
+
+		public long size() {
+			return this.attributes.size();
+		}
+
+		/**
+		 * @return The modification time in milliseconds
+		 */
+		public long modified() {
+			return this.attributes.lastModifiedTime().toMillis();
+		}
+
+	}
+
+	private FileTree() {}
+
+	/**
+	 * Scans the files and directories and all files in them.
+	 * @param paths The files and directories to scan
+	 * @param pred The predicate of the entries to return, directories are scanned regardless of it
+	 * @return The entries matching the predicate, or an empty list if none of the paths exist
+	 */
+	public static List<Entry> scan(Collection<File> paths, Predicate<Entry> pred) {
+		List<Entry> entries = new ArrayList<>();
+		for (File path : paths) entries.addAll(scan(path, pred));
+		return entries;
+	}
+
+	/**
+	 * Scans the file or directory and all files in it.
+	 * @param path The file or directory to scan
+	 * @param pred The predicate of the entries to return, directories are scanned regardless of it
+	 * @return The entries matching the predicate, the path itself included, or an empty list if it does not exist
+	 */
+	public static List<Entry> scan(File path, Predicate<Entry> pred) {
+		Objects.requireNonNull(path, "path can not be null");
+		Objects.requireNonNull(pred, "pred can not be null");
+		BuildEvents.FileTreeScan event = new BuildEvents.FileTreeScan();
+		event.begin();
+		List<Entry> entries = new ArrayList<>();
+		try {
+			Entry root = new Entry(path, Files.readAttributes(path.toPath(), BasicFileAttributes.class));
+			if (pred.test(root)) entries.add(root);
+			if (root.isDirectory()) {
+				// the predicate is tested on the calling thread, it might depend on the metabuild session of the thread
+				for (Entry entry : ForkJoinPool.commonPool().invoke(new ScanTask(path.toPath())))
+					if (pred.test(entry)) entries.add(entry);
+			}
+		} catch (IOException e) {
+			// does not exist, nothing to scan
+		}
+		if (event.shouldCommit()) {
+			event.path = path.getPath();
+			event.fileCount = entries.size();
+			event.commit();
+		}
+		return entries;
+	}
+
+	/**
+	 * Lists an directory and forks an task for each of its sub directories, returns all entries in the directory tree.
+	 */
+	private static class ScanTask extends RecursiveTask<List<Entry>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory;
+
+		public ScanTask(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected List<Entry> compute() {
+
+			List<Path> children = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+				for (Path child : stream) children.add(child);
+			} catch (IOException e) {
+				// not readable or deleted while scanning, treated as empty
+				return Collections.emptyList();
+			}
+			Collections.sort(children);
+
+			// the entries of the directory come first, followed by the entries of each sub directory
+			List<Entry> entries = new ArrayList<>();
+			List<ScanTask> subtasks = new ArrayList<>();
+			for (Path child : children) {
+				try {
+					Entry entry = new Entry(child.toFile(), Files.readAttributes(child, BasicFileAttributes.class));
+					entries.add(entry);
+					if (entry.isDirectory()) subtasks.add(new ScanTask(child));
+				} catch (IOException e) {
+					// deleted while scanning or broken link
+				}
+			}
+			if (subtasks.size() == 1) {
+				entries.addAll(subtasks.get(0).compute());
+			} else if (!subtasks.isEmpty()) {
+				for (ScanTask subtask : ForkJoinTask.invokeAll(subtasks))
+					entries.addAll(subtask.join());
+			}
+			return entries;
+
+		}
+
+	}
+
+}
@@ -13,15 +13,12 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Queue;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -53,7 +50,7 @@ public class FileUtility {
 	}
 	
 	public static List<File> deepList(File dir) {
-		return deepList(dir, File::isFile);
+		return FileTree.scan(dir, FileTree.Entry::isFile).stream().map(FileTree.Entry::file).toList();
 	}
 
 	public static List<File> deepList(Collection<File> dirs, Predicate<File> pred) {
@@ -61,20 +58,8 @@ public class FileUtility {
 	}
 	
 	public static List<File> deepList(File path, Predicate<File> pred) {
-		Objects.requireNonNull(path, "path can not be null");
 		Objects.requireNonNull(pred, "pred can not be null");
-		List<File> files = new ArrayList<>();
-		if (pred.test(path)) files.add(path);
-		if (path.isDirectory()) {
-			Queue<File> scan = new ArrayDeque<>();
-			scan.addAll(Arrays.asList(path.listFiles()));
-			while (!scan.isEmpty()) {
-				File f = scan.poll();
-				if (pred.test(f)) files.add(f);
-				if (f.isDirectory()) scan.addAll(Arrays.asList(f.listFiles()));
-			}
-		}
-		return files;
+		return FileTree.scan(path, e -> pred.test(e.file())).stream().map(FileTree.Entry::file).toList();
 	}
 	
 	public static File absolute(File path) {
@@ -122,9 +107,8 @@ public class FileUtility {
 	public static Optional<FileTime> timestampDir(File directory) {
 		Objects.requireNonNull(directory, "directory can not be null");
 		if (directory.isFile()) return timestamp(directory);
-		var latest = deepList(directory).stream().map(FileUtility::timestamp).reduce(FileUtility::latest);
-		if (latest.isEmpty()) return Optional.empty();
-		return latest.get();
+		OptionalLong latest = FileTree.scan(directory, FileTree.Entry::isFile).stream().mapToLong(FileTree.Entry::modified).max();
+		return latest.isPresent() ? Optional.of(FileTime.fromMillis(latest.getAsLong())) : Optional.empty();
 	}
 	
 	@SafeVarargs
@@ -1,5 +1,9 @@
 package de.m_marvin.metabuild.core.util;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -7,22 +11,58 @@ import java.util.HexFormat;
 
 public class HashUtility {
 	
-	private static MessageDigest hasher;
-	
-	static {
+	/* Message digests are not thread safe, each thread gets its own */
+	private static final ThreadLocal<MessageDigest> hasher = ThreadLocal.withInitial(() -> {
 		try {
-			hasher = MessageDigest.getInstance("MD5");
+			return MessageDigest.getInstance("MD5");
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("Hashing algorithm MD5 unavailable");
 		}
-	}
+	});
+	private static final ThreadLocal<MessageDigest> secureHasher = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Hashing algorithm SHA-256 unavailable");
+		}
+	});
 	
 	public static String hash(String text) {
 		return hash(text.getBytes(StandardCharsets.UTF_8));
 	}
 
 	public static String hash(byte[] data) {
-		return HexFormat.of().formatHex(hasher.digest(data));
+		return HexFormat.of().formatHex(hasher.get().digest(data));
+	}
+	
+	/**
+	 * Hashes the text with SHA-256, for keys which are shared with other machines and must not collide.
+	 * @param text The text to hash
+	 * @return The hash of the text
+	 */
+	public static String secureHash(String text) {
+		return HexFormat.of().formatHex(secureHasher.get().digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Hashes the content of the file without loading it completely into memory.
+	 * @param file The file to hash
+	 * @return The hash of the file content
+	 * @throws IOException if the file could not be read
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest = hasher.get();
+		digest.reset();
+		try (InputStream stream = new FileInputStream(file)) {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = stream.read(buffer)) > 0)
+				digest.update(buffer, 0, len);
+		} catch (IOException e) {
+			digest.reset();
+			throw e;
+		}
+		return HexFormat.of().formatHex(digest.digest());
 	}
 	
 }
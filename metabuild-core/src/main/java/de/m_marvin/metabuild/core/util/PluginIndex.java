@@ -0,0 +1,147 @@
+package de.m_marvin.metabuild.core.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Remembers the plugin information of jar files, so unchanged plugins can be registered without opening their jar.<br>
+ * The index is stored in an file in the cache directory, jars are identified by their path, size and modification time.
+ * Besides the plugin name, the packages of each jar are stored, so the plugin class loader does not have to open the jar to index it.
+ */
+public class PluginIndex {
+
+	/**
+	 * The indexed information of an jar file.
+	 * @param size The size of the jar when it was indexed
+	 * @param modified The modification time of the jar when it was indexed
+	 * @param info The plugin name and version, or null if the jar is not an plugin
+	 * @param packages The packages contained in the jar, separated by '/' like the entry names
+	 */
+	public static record Entry(long size, long modified, String info, Set<String> packages) {}
+
+	private final File indexFile;
+	private final Map<String, Entry> entries = new HashMap<>();
+	private boolean changed = false;
+
+	public PluginIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the index from the file, malformed entries are ignored.
+	 * @return false if the file exists but could not be read
+	 */
+	public boolean load() {
+		this.entries.clear();
+		this.changed = false;
+		if (!this.indexFile.isFile()) return true;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.indexFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 5) continue;
+				try {
+					Set<String> packages = new TreeSet<>();
+					if (!fields[4].isEmpty()) packages.addAll(Arrays.asList(fields[4].split(",", -1)));
+					String info = fields[3].isEmpty() ? null : fields[3];
+					this.entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), info, packages));
+				} catch (NumberFormatException e) {}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the index back to the file, if it has changed.<br>
+	 * Entries of jars which no longer exist are removed.
+	 * The file is written to an temporary file first and then moved in place, so other processes never read an partially written index.
+	 * @return false if the file could not be written
+	 */
+	public boolean save() {
+		if (this.entries.keySet().removeIf(path -> !new File(path).isFile())) this.changed = true;
+		if (!this.changed) return true;
+		File tempFile = null;
+		try {
+			if (!this.indexFile.getParentFile().isDirectory() && !this.indexFile.getParentFile().mkdirs()) return false;
+			tempFile = File.createTempFile(this.indexFile.getName(), ".tmp", this.indexFile.getParentFile());
+			try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				for (var entry : new TreeMap<>(this.entries).entrySet()) {
+					Entry e = entry.getValue();
+					writer.println(String.join("\t", entry.getKey(), Long.toString(e.size()), Long.toString(e.modified()), e.info() == null ? "" : e.info(), String.join(",", e.packages())));
+				}
+				if (writer.checkError()) return false;
+			}
+			Files.move(tempFile.toPath(), this.indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			this.changed = false;
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (tempFile != null) tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the plugin information of the jar, the jar is only opened if it is not in the index or has changed since it was indexed.
+	 * @param pluginFile The jar file
+	 * @return The indexed information of the jar, or an empty optional if it is not an valid plugin
+	 */
+	public Optional<Entry> check(File pluginFile) {
+		String path = pluginFile.getAbsolutePath();
+		long size = pluginFile.length();
+		long modified = pluginFile.lastModified();
+		Entry entry = this.entries.get(path);
+		if (entry == null || entry.size() != size || entry.modified() != modified) {
+			entry = read(pluginFile, size, modified);
+			if (entry == null) {
+				// jars which could not be read are not indexed, they might be written right now
+				if (this.entries.remove(path) != null) this.changed = true;
+				return Optional.empty();
+			}
+			this.entries.put(path, entry);
+			this.changed = true;
+		}
+		return entry.info() != null ? Optional.of(entry) : Optional.empty();
+	}
+
+	private static Entry read(File pluginFile, long size, long modified) {
+		try (JarFile jar = new JarFile(pluginFile)) {
+			Manifest manifest = jar.getManifest();
+			Attributes attributes = manifest != null ? manifest.getMainAttributes() : new Attributes();
+			String pluginName = attributes.getValue("Metabuild-Plugin-Name");
+			String versionName = attributes.getValue("Implementation-Version");
+			Set<String> packages = new TreeSet<>();
+			if (pluginName != null) {
+				jar.stream().filter(e -> !e.isDirectory()).forEach(e -> {
+					int s = e.getName().lastIndexOf('/');
+					packages.add(s < 0 ? "" : e.getName().substring(0, s));
+				});
+			}
+			return new Entry(size, modified, pluginName != null ? String.format("(%s) %s", pluginName, versionName) : null, packages);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
@@ -1,9 +1,14 @@
 package de.m_marvin.metabuild.core.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import de.m_marvin.metabuild.core.Metabuild;
@@ -15,18 +20,43 @@ public class ProcessUtility {
 	private ProcessUtility() {}
 	
 	public static int runProcess(Logger logger, ProcessBuilder processBuilder) throws BuildException {
-		return runProcess(logger, processBuilder, () -> false);
+		return runProcess(logger, processBuilder, new CompletableFuture<Void>());
 	}
 	
+	/**
+	 * Runs the process and pipes its output to the logger.<br>
+	 * The abort switch can only be checked periodically, runProcess(Logger, ProcessBuilder, CompletionStage) should be preferred.
+	 * @return The exit code of the process, or Integer.MIN_VALUE if it was aborted
+	 */
 	public static int runProcess(Logger logger, ProcessBuilder processBuilder, Supplier<Boolean> abortSwitch) throws BuildException {
+		return runProcess(logger, processBuilder, new CompletableFuture<Void>(), abortSwitch);
+	}
+	
+	/**
+	 * Runs the process and pipes its output to the logger.<br>
+	 * The process is destroyed as soon as the abort signal completes.
+	 * @return The exit code of the process, or Integer.MIN_VALUE if it was aborted
+	 */
+	public static int runProcess(Logger logger, ProcessBuilder processBuilder, CompletionStage<?> abortSignal) throws BuildException {
+		return runProcess(logger, processBuilder, abortSignal, null);
+	}
+	
+	private static int runProcess(Logger logger, ProcessBuilder processBuilder, CompletionStage<?> abortSignal, Supplier<Boolean> abortSwitch) throws BuildException {
 		
-		try {
+		BuildEvents.ProcessSpawn event = new BuildEvents.ProcessSpawn();
+		event.begin();
+		try (BuildTrace.Span span = BuildTrace.begin("process", new File(processBuilder.command().get(0)).getName())) {
 			
 			// Start process
 			Process process = processBuilder.start();
+			span.arg("pid", process.pid()).arg("command", String.join(" ", processBuilder.command()));
+			event.pid = process.pid();
+			
+			// Pipe input to process
+			Metabuild.get().setConsoleInputTarget(process.getOutputStream());
 			
-			// Pipe output to logger
-			Thread stoutPipe = new Thread(() -> {
+			// Pipe output to logger, virtual threads if available since they are blocked most of the time
+			Thread stoutPipe = VirtualThreads.start("PipeStdOut", () -> {
 				InputStreamReader source = new InputStreamReader(process.getInputStream());
 				PrintWriter target = logger.infoPrinterRaw();
 				try {
@@ -34,8 +64,8 @@ public class ProcessUtility {
 				} catch (IOException e) {} finally {
 					target.flush();
 				}
-			}, "PipeStdOut");
-			Thread sterrPipe = new Thread(() -> {
+			});
+			Thread sterrPipe = VirtualThreads.start("PipeStdErr", () -> {
 				InputStreamReader source = new InputStreamReader(process.getErrorStream());
 				PrintWriter target = logger.errorPrinterRaw();
 				try {
@@ -43,28 +73,38 @@ public class ProcessUtility {
 				} catch (IOException e) {} finally {
 					target.flush();
 				}
-			}, "PipeStdErr");
-			
-			// Pipe input to process
-			Metabuild.get().setConsoleInputTarget(process.getOutputStream());
+			});
 			
-			// Start pipe threads
-			stoutPipe.setDaemon(true);
-			sterrPipe.setDaemon(true);
-			stoutPipe.start();
-			sterrPipe.start();
+			// Destroy process on abort request, the signal only references the process until it has exited
+			AtomicBoolean aborted = new AtomicBoolean(false);
+			AtomicReference<Process> running = new AtomicReference<>(process);
+			abortSignal.thenRun(() -> {
+				Process p = running.getAndSet(null);
+				if (p != null && p.isAlive()) {
+					aborted.set(true);
+					p.destroy();
+				}
+			});
 			
 			// Wait for process to finish
-			boolean aborted = false;
-			while (process.isAlive()) {
-				process.waitFor(1, TimeUnit.SECONDS);
-				if (abortSwitch.get()) {
-					process.destroy();
-					aborted = true;
+			try {
+				if (abortSwitch == null) {
+					process.waitFor();
+				} else {
+					while (!process.waitFor(1, TimeUnit.SECONDS)) {
+						if (abortSwitch.get()) {
+							aborted.set(true);
+							process.destroy();
+						}
+					}
 				}
+			} finally {
+				running.set(null);
 			}
 			
-			int exitCode = aborted ? Integer.MIN_VALUE : process.exitValue();
+			int exitCode = aborted.get() ? Integer.MIN_VALUE : process.exitValue();
+			span.arg("exitCode", exitCode);
+			event.exitCode = exitCode;
 			
 			// Close pipes
 			Metabuild.get().setConsoleInputTarget(null);
@@ -78,6 +118,11 @@ public class ProcessUtility {
 			throw BuildException.msg(e, "failed to start process!");
 		} catch (InterruptedException e) {
 			throw BuildException.msg(e, "interrupted while waiting for process!");
+		} finally {
+			if (event.shouldCommit()) {
+				event.command = String.join(" ", processBuilder.command());
+				event.commit();
+			}
 		}
 		
 	}
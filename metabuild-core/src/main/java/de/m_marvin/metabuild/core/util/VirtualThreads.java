@@ -0,0 +1,97 @@
+package de.m_marvin.metabuild.core.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads if the runtime supports them.<br>
+ * Metabuild is compiled for an older java version, so the virtual thread API is looked up reflectively.
+ * On runtimes without virtual threads, daemon platform threads are used instead.
+ */
+public class VirtualThreads {
+
+	private VirtualThreads() {}
+
+	/* Thread.Builder.OfVirtual instance, or null if not supported */
+	private static final Object VIRTUAL_BUILDER;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Object builder = null;
+		Method name = null;
+		Method factory = null;
+		Method executor = null;
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			name = builderClass.getMethod("name", String.class, long.class);
+			factory = builderClass.getMethod("factory");
+			executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			builder = null;
+		}
+		VIRTUAL_BUILDER = builder;
+		BUILDER_NAME = name;
+		BUILDER_FACTORY = factory;
+		THREAD_PER_TASK_EXECUTOR = executor;
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return VIRTUAL_BUILDER != null;
+	}
+
+	/**
+	 * Returns an thread factory for virtual threads, or daemon platform threads if virtual threads are not available.
+	 * @param name The name prefix of the created threads
+	 * @return The thread factory
+	 */
+	public static ThreadFactory factory(String name) {
+		if (isAvailable()) {
+			try {
+				synchronized (VIRTUAL_BUILDER) {
+					return (ThreadFactory) BUILDER_FACTORY.invoke(BUILDER_NAME.invoke(VIRTUAL_BUILDER, name + "-", 0L));
+				}
+			} catch (ReflectiveOperationException e) {}
+		}
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Creates an executor which starts an new virtual thread for each task.
+	 * @param name The name prefix of the created threads
+	 * @return The executor, or null if virtual threads are not available
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String name) {
+		if (!isAvailable()) return null;
+		try {
+			return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(null, factory(name));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates and starts an new thread, virtual if supported by the runtime.
+	 * @param name The name of the thread
+	 * @param task The code to run in the thread
+	 * @return The started thread
+	 */
+	public static Thread start(String name, Runnable task) {
+		Thread thread = factory(name).newThread(task);
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+
+}
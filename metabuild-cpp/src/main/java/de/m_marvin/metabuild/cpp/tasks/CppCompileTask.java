@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +29,9 @@ import de.m_marvin.basicxml.XMLStream.ElementDescriptor;
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.script.TaskType;
 import de.m_marvin.metabuild.core.tasks.CommandLineTask;
+import de.m_marvin.metabuild.core.tasks.FileChanges;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
+import de.m_marvin.metabuild.core.util.FileTree;
 import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.metabuild.core.util.HashUtility;
 
@@ -53,6 +57,8 @@ public class CppCompileTask extends CommandLineTask {
 	public CppCompileTask(String name) {
 		super(name);
 		this.type = TaskType.named("COMPILE_CPP");
+		this.demands(TaskResource.MEMORY, 1024); // each compiler process can take up to about 1 GB
+		this.cacheable = true;
 	}
 
 	protected File getMetaFile() {
@@ -155,7 +161,7 @@ public class CppCompileTask extends CommandLineTask {
 		
 		// Search for source code files
 		File srcPath = FileUtility.absolute(this.sourcesDir);
-		List<File> sourceFiles = FileUtility.deepList(srcPath, this.sourcePredicate);
+		List<FileTree.Entry> sourceEntries = FileTree.scan(srcPath, e -> this.sourcePredicate.test(e.file()));
 		
 		// Generate and load object meta data cache file name if not set
 		if (this.stateCache == null) {
@@ -163,6 +169,21 @@ public class CppCompileTask extends CommandLineTask {
 		}
 		loadMetadata();
 		
+		// Declare sources, headers and outputs for the up to date check and the build cache
+		File objPath = FileUtility.absolute(this.objectsDir);
+		inputEntries(sourceEntries);
+		inputs(FileUtility.parseFilePaths(this.includes).stream().filter(File::isDirectory).toList());
+		outputs(objPath, getMetaFile());
+		property("options", this.options);
+		property("symbols", new TreeMap<>(this.symbols));
+		property("sourceStandard", this.sourceStandard);
+		property("compiler", this.compiler);
+		boolean unchanged = fingerprintState() == TaskState.UPTODATE;
+		
+		// Only changed sources are compiled incrementally, changes of the headers, the properties or the outputs require an full recompilation
+		FileChanges changes = inputChanges();
+		boolean recompile = !unchanged && !changes.isIncremental(f -> FileUtility.isIn(f, srcPath) && this.sourcePredicate.test(f));
+		
 		// Check for removed source files
 		this.removed = this.sourceMetadata.keySet().stream()
 				.filter(f -> !f.isFile())
@@ -170,14 +191,15 @@ public class CppCompileTask extends CommandLineTask {
 		
 		// Check for source files to compile and create output directories
 		this.compile = new ArrayDeque<File>();
-		File objPath = FileUtility.absolute(this.objectsDir);
-		srcloop: for (File sourceFile : sourceFiles) {
+		if (unchanged) sourceEntries = Collections.emptyList();
+		srcloop: for (FileTree.Entry sourceEntry : sourceEntries) {
+			File sourceFile = sourceEntry.file();
 			String unitName = FileUtility.getNameNoExtension(sourceFile);
-			Optional<FileTime> sourceTime = FileUtility.timestamp(sourceFile);
-			if (sourceTime.isEmpty()) {
+			if (!sourceEntry.isFile() || recompile || changes.isModified(sourceFile)) {
 				this.compile.add(sourceFile);
 				continue;
 			}
+			FileTime sourceTime = FileTime.fromMillis(sourceEntry.modified());
 			File objectDir = FileUtility.absolute(FileUtility.relative(sourceFile, srcPath), objPath).getParentFile();
 			if (objectDir.isDirectory()) {
 				for (File objectFile : objectDir.listFiles()) {
@@ -185,7 +207,7 @@ public class CppCompileTask extends CommandLineTask {
 						Optional<FileTime> objectTime = FileUtility.timestamp(objectFile);
 						if (objectTime.isEmpty())
 							this.compile.add(sourceFile);
-						if (objectTime.get().compareTo(sourceTime.get()) < 0)
+						if (objectTime.get().compareTo(sourceTime) < 0)
 							this.compile.add(sourceFile);
 						continue srcloop;
 					}
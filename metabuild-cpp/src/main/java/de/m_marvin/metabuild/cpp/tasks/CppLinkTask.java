@@ -1,17 +1,18 @@
 package de.m_marvin.metabuild.cpp.tasks;
 
 import java.io.File;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Predicate;
 
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.script.TaskType;
 import de.m_marvin.metabuild.core.tasks.CommandLineTask;
+import de.m_marvin.metabuild.core.util.FileTree;
 import de.m_marvin.metabuild.core.util.FileUtility;
 
 public class CppLinkTask extends CommandLineTask {
@@ -32,33 +33,25 @@ public class CppLinkTask extends CommandLineTask {
 	public CppLinkTask(String name) {
 		super(name);
 		this.type = TaskType.named("LINK_CPP");
+		this.cacheable = true;
 	}
 	
 	@Override
 	protected TaskState prepare() {
 		
-		// Get output timestamp
-		File outputFile = FileUtility.absolute(this.outputFile);
-		Optional<FileTime> outputTime = FileUtility.timestamp(outputFile);
-
 		// Get all object files to link
-		this.link = FileUtility.deepList(FileUtility.absolute(this.objectsDir), this.objectFilePredicate);
+		List<FileTree.Entry> objectEntries = FileTree.scan(FileUtility.absolute(this.objectsDir), e -> this.objectFilePredicate.test(e.file()));
+		this.link = objectEntries.stream().map(FileTree.Entry::file).toList();
 		
 		// Check if the files have to be linked again
-		if (outputTime.isEmpty()) {
-			return TaskState.OUTDATED;
-		}
-		for (File objectFile : this.link) {
-			Optional<FileTime> objectTime = FileUtility.timestamp(objectFile);
-			if (objectTime.isEmpty()) {
-				return TaskState.OUTDATED;
-			}
-			if (objectTime.get().compareTo(outputTime.get()) > 0) {
-				return TaskState.OUTDATED;
-			}
-		}
-		
-		return TaskState.UPTODATE;
+		inputEntries(objectEntries);
+		inputs(FileUtility.parseFilePaths(this.libraryDirs).stream().filter(File::isFile).toList());
+		if (this.outputFile != null) outputs(FileUtility.absolute(this.outputFile));
+		property("libraries", new TreeSet<>(this.libraries));
+		property("libraryDirs", new TreeSet<>(this.libraryDirs));
+		property("options", this.options);
+		property("linker", this.linker);
+		return fingerprintState();
 	}
 	
 	@Override
@@ -3,11 +3,13 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import de.m_marvin.metabuild.core.exception.BuildException;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
 import de.m_marvin.metabuild.core.tasks.ZipTask;
 
 public class JarTask extends ZipTask {
@@ -20,6 +22,15 @@ public class JarTask extends ZipTask {
 	public JarTask(String name) {
 		super(name);
 		this.metainfo.put("Manifest-Version", "1.0");
+		this.demands(TaskResource.CPU, 0);
+		this.demands(TaskResource.IO, 1);
+		this.cacheable = true;
+	}
+	
+	@Override
+	public TaskState prepare() {
+		property("manifest", new TreeMap<>(this.metainfo));
+		return super.prepare();
 	}
 	
 	protected boolean buildManifest(StringBuffer sbuffer) {
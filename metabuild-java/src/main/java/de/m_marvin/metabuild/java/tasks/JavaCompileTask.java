@@ -16,10 +16,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import javax.tools.Diagnostic;
@@ -41,6 +43,8 @@ import de.m_marvin.basicxml.XMLStream.ElementDescriptor;
 import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.script.TaskType;
 import de.m_marvin.metabuild.core.tasks.BuildTask;
+import de.m_marvin.metabuild.core.tasks.FileChanges;
+import de.m_marvin.metabuild.core.util.FileTree;
 import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.metabuild.core.util.HashUtility;
 
@@ -65,6 +69,7 @@ public class JavaCompileTask extends BuildTask {
 	public JavaCompileTask(String name) {
 		super(name);
 		this.type = TaskType.named("JAVA_COMPILE");
+		this.cacheable = true;
 	}
 	
 	protected File getMetaFile() {
@@ -159,8 +164,28 @@ public class JavaCompileTask extends BuildTask {
 		if (this.stateCache == null)
 			this.stateCache = new File("../" + HashUtility.hash(this.sourcesDir.getPath()) + ".classmeta");
 		
+		// Nothing to do if the content of the sources, the classpath and the outputs did not change since the last run
+		List<FileTree.Entry> sourceEntries = FileTree.scan(srcPath, FileTree.Entry::isFile);
+		inputTree(srcPath, sourceEntries);
+		inputs(FileUtility.parseFilePaths(this.classpath));
+		outputs(FileUtility.absolute(this.classesDir), getMetaFile());
+		if (this.headersDir != null) outputs(FileUtility.absolute(this.headersDir));
+		property("options", this.options);
+		property("sourceCompatibility", this.sourceCompatibility);
+		property("targetCompatibility", this.targetCompatibility);
+		if (fingerprintState() == TaskState.UPTODATE) {
+			this.compile = Collections.emptyList();
+			this.removed = Collections.emptyList();
+			return TaskState.UPTODATE;
+		}
+		
 		loadMetadata();
 		
+		// Only changed sources are compiled incrementally, changes of the classpath, the properties or the outputs require an full recompilation
+		FileChanges changes = inputChanges();
+		if (!changes.isIncremental(f -> FileUtility.isIn(f, srcPath) && FileUtility.getExtension(f).equalsIgnoreCase("java")))
+			this.sourceMetadata.clear(); // clearing the metadata causes all files to be recompiled
+		
 		for (File path : FileUtility.parseFilePaths(this.classpath)) {
 			
 			if (path.isFile()) {
@@ -177,18 +202,21 @@ public class JavaCompileTask extends BuildTask {
 			
 		}
 		
-		List<File> sourceFiles = FileUtility.deepList(srcPath, f -> FileUtility.getExtension(f).equalsIgnoreCase("java")).stream().
-				map(f -> FileUtility.relative(f, srcPath))
-				.toList();
+		// Reuse the scan of the sources, the modification times were read with it
+		Map<File, FileTime> sourceTimes = new LinkedHashMap<>();
+		for (FileTree.Entry entry : sourceEntries) {
+			if (!FileUtility.getExtension(entry.file()).equalsIgnoreCase("java")) continue;
+			sourceTimes.put(FileUtility.relative(entry.file(), srcPath), FileTime.fromMillis(entry.modified()));
+		}
+		Set<File> sourceFiles = sourceTimes.keySet();
 		
 		// Check for updated source files to compile
 		this.compile = sourceFiles.stream()
 			.filter(f -> f.getName().endsWith(".java"))
 			.filter(f -> {
 				if (!this.sourceMetadata.containsKey(f)) return true;
-				Optional<FileTime> a = FileUtility.timestamp(FileUtility.absolute(f, srcPath));
-				if (a.isEmpty()) return true;
-				if (a.get().compareTo(this.sourceMetadata.get(f).timestamp()) > 0) return true;
+				if (sourceTimes.get(f).compareTo(this.sourceMetadata.get(f).timestamp()) > 0) return true;
+				if (changes.isModified(FileUtility.absolute(f, srcPath))) return true;
 				return false;
 			})
 			.toList();
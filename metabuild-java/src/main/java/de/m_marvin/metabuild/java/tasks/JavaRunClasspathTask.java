@@ -70,7 +70,7 @@ public class JavaRunClasspathTask extends BuildTask {
 			// Start process
 			logger().warnt(logTag(), "starting process: %s", this.mainClass);
 			logger().debugt(logTag(), "java cmd: %s", commandLine.stream().reduce((a, b) -> a + " " + b).get());
-			int exitCode = ProcessUtility.runProcess(logger(), processBuilder, this::shouldAbort);
+			int exitCode = ProcessUtility.runProcess(logger(), processBuilder, abortSignal());
 			logger().warnt(logTag(), "process terminated, exit code: %d", exitCode);
 			return this.exitCondition.test(exitCode);
 		} catch (MetaScriptException e) {
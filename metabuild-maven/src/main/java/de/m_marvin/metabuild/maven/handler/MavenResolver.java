@@ -40,6 +40,8 @@ import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import de.m_marvin.metabuild.core.util.BuildEvents;
+import de.m_marvin.metabuild.core.util.BuildTrace;
 import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.metabuild.maven.exception.MavenException;
 import de.m_marvin.metabuild.maven.types.Artifact;
@@ -645,7 +647,10 @@ public class MavenResolver {
 		// if no data in cache and in OFFLINE mode and not metadata, abort resolution, don't download anything
 		if (!localArtifact.isFile() && this.resolutionStrategy == ResolutionStrategy.OFFLINE && !dataLevel.isMetadata()) return null;
 		
-		try {
+		BuildEvents.ArtifactDownload event = new BuildEvents.ArtifactDownload();
+		event.begin();
+		try (BuildTrace.Span span = BuildTrace.begin("download", artifact + " " + dataLevel)) {
+			span.arg("repository", repository.name);
 
 			// get remote URL
 			URL artifactURL = repository.artifactURL(artifact, dataLevel, ArtifactFile.DATA);
@@ -695,6 +700,8 @@ public class MavenResolver {
 						if (Arrays.compare(localChecksum, onlineChecksum) != 0)
 							throw new MavenException("artifact checksum error: online %s != local %s > %s", HexFormat.of().formatHex(onlineChecksum), HexFormat.of().formatHex(localChecksum), checksumURL.toString());
 						
+						event.bytes = localArtifact.length();
+						span.arg("bytes", event.bytes);
 						return localArtifact;
 					} catch (IllegalArgumentException e) {
 						localStream.close();
@@ -720,6 +727,8 @@ public class MavenResolver {
 				onlineStream.close();
 				localStream.close();
 				
+				event.bytes = localArtifact.length();
+				span.arg("bytes", event.bytes);
 				return localArtifact;
 			} catch (IOException e) {
 				// transfer error
@@ -737,6 +746,12 @@ public class MavenResolver {
 		} catch (Throwable e) {
 			localArtifact.delete();
 			throw new MavenException(e, "unknown internal error when processing POM artifact: %s", artifact, localArtifact);
+		} finally {
+			if (event.shouldCommit()) {
+				event.artifact = artifact + " " + dataLevel;
+				event.repository = repository.name;
+				event.commit();
+			}
 		}
 		 
 	}
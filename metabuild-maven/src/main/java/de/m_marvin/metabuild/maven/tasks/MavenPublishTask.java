@@ -20,6 +20,7 @@ import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.exception.BuildScriptException;
 import de.m_marvin.metabuild.core.script.TaskType;
 import de.m_marvin.metabuild.core.tasks.BuildTask;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
 import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.metabuild.maven.exception.MavenException;
 import de.m_marvin.metabuild.maven.handler.MavenPublisher;
@@ -46,6 +47,8 @@ public class MavenPublishTask extends BuildTask {
 	public MavenPublishTask(String name) {
 		super(name);
 		this.type = TaskType.named("MAVEN_PUBLISH");
+		this.demands(TaskResource.CPU, 0);
+		this.demands(TaskResource.NETWORK, 1);
 		
 		try {
 			this.resolver = new MavenResolver(new TagLogger(logger(), logTag() + "/resolver"), new File(Metabuild.get().cacheDir(), "files"));
@@ -16,6 +16,7 @@ import de.m_marvin.metabuild.core.exception.BuildException;
 import de.m_marvin.metabuild.core.exception.BuildScriptException;
 import de.m_marvin.metabuild.core.script.TaskType;
 import de.m_marvin.metabuild.core.tasks.BuildTask;
+import de.m_marvin.metabuild.core.tasks.TaskResource;
 import de.m_marvin.metabuild.core.util.FileUtility;
 import de.m_marvin.metabuild.maven.exception.MavenException;
 import de.m_marvin.metabuild.maven.handler.MavenResolver;
@@ -40,6 +41,8 @@ public class MavenResolveTask extends BuildTask {
 	public MavenResolveTask(String name) {
 		super(name);
 		this.type = TaskType.named("MAVEN_DEPENDENCY");
+		this.demands(TaskResource.CPU, 0);
+		this.demands(TaskResource.NETWORK, 1);
 		
 		try {
 			this.graph = new DependencyGraph();
@@ -21,6 +21,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import de.m_marvin.metabuild.api.core.IMeta;
+import de.m_marvin.metabuild.api.core.daemon.MetaDaemonClient;
 
 public class MetaWrapper {
 	
@@ -70,6 +71,9 @@ public class MetaWrapper {
 		if (!prepareMetabuild(MetaWrapper.class.getProtectionDomain().getCodeSource().getLocation()))
 			System.exit(-1);
 		
+		if (Arrays.stream(args).anyMatch(a -> a.matches("-{1,2}daemon")))
+			System.exit(runMetabuildDaemon(args));
+		
 		System.exit(runMetabuild(args));
 		
 	}
@@ -255,6 +259,28 @@ public class MetaWrapper {
 		}
 	}
 	
+	/**
+	 * Run metabuild on the background daemon of the current directory, the daemon is started if not yet running.<br>
+	 * If the daemon can not be reached, metabuild is run in an new process instead.
+	 * @param args The command arguments passed to meta
+	 * @return the exit code of the build
+	 */
+	public static int runMetabuildDaemon(String[] args) {
+		
+		Optional<String> jvm = ProcessHandle.current().info().command();
+		String java = jvm.orElse("java");
+		
+		List<String> daemonCommand = List.of(java, "-cp", metaJar.getAbsolutePath(), MetaDaemonClient.DAEMON_MAIN_CLASS);
+		String[] daemonArgs = Arrays.stream(args).filter(a -> !a.matches("-{1,2}daemon")).toArray(String[]::new);
+		
+		int exitCode = MetaDaemonClient.runBuild(new File(System.getProperty("user.dir")), daemonArgs, daemonCommand, System.out);
+		if (exitCode != MetaDaemonClient.DAEMON_UNAVAILABLE) return exitCode;
+		
+		System.err.println("\033[31mcould not reach meta daemon, running metabuild in new process\033[0m");
+		return runMetabuild(daemonArgs);
+		
+	}
+	
 	/**
 	 * Run metabuild using the supplied command arguments
 	 * @param args The command arguments passed to meta